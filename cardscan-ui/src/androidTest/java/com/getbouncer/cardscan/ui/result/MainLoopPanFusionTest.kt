@@ -0,0 +1,53 @@
+package com.getbouncer.cardscan.ui.result
+
+import android.graphics.RectF
+import androidx.test.filters.SmallTest
+import com.getbouncer.cardscan.ui.analyzer.PaymentCardOcrAnalyzer
+import com.getbouncer.scan.payment.ml.ssd.DetectionBox
+import kotlinx.coroutines.runBlocking
+import org.junit.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertTrue
+
+class MainLoopPanFusionTest {
+
+    private fun digits(read: String) = read.mapIndexed { index, digit ->
+        DetectionBox(RectF(index * 0.05F, 0.5F, (index + 1) * 0.05F, 0.55F), 0.9F, digit - '0')
+    }
+
+    @Test
+    @SmallTest
+    fun ocrRunning_fusedDigits_noNameNorExpiry() = runBlocking {
+        val pan = "4847186095118770"
+
+        var state: MainLoopState = MainLoopState.OcrRunning(
+            firstPan = pan,
+            enableNameExtraction = false,
+            enableExpiryExtraction = false,
+            firstPanDigits = digits(pan),
+        )
+
+        // frames with a single misread digit do not agree on the PAN, but do agree on each of its digits
+        val misreadPrediction = PaymentCardOcrAnalyzer.Prediction(
+            pan = null,
+            panDetectionBoxes = digits("4847186095118771"),
+            name = null,
+            expiry = null,
+            objDetectionBoxes = null,
+            isExpiryExtractionAvailable = false,
+            isNameExtractionAvailable = false,
+        )
+
+        state = state.consumeTransition(misreadPrediction)
+        assertTrue(state is MainLoopState.OcrRunning)
+        state = state.consumeTransition(misreadPrediction.copy(panDetectionBoxes = digits("5847186095118770")))
+        assertTrue(state is MainLoopState.OcrRunning)
+
+        // each frame misreads a different digit, so every position has enough agreement after this frame
+        val newState = state.consumeTransition(
+            misreadPrediction.copy(panDetectionBoxes = digits("4847186195118770"))
+        )
+        assertTrue(newState is MainLoopState.Finished, "$newState is not Finished")
+        assertEquals(pan, newState.pan)
+    }
+}
@@ -226,7 +226,18 @@ abstract class CardScanBaseActivity :
     /**
      * An interim result was received from the result aggregator.
      */
-    override suspend fun onInterimResult(result: MainLoopAggregator.InterimResult) = launch(Dispatchers.Main) {
+    override suspend fun onInterimResult(result: MainLoopAggregator.InterimResult) {
+        // read the state on the aggregation lane, where it is changed, before switching to the main thread
+        val mostLikelyPan = (result.state as? MainLoopState.OcrRunning)?.getMostLikelyPan()
+        val mostLikelyName = (result.state as? MainLoopState.NameAndExpiryRunning)?.getMostLikelyName()
+        showInterimResult(result, mostLikelyPan, mostLikelyName)
+    }
+
+    private fun showInterimResult(
+        result: MainLoopAggregator.InterimResult,
+        mostLikelyPan: String?,
+        mostLikelyName: String?,
+    ) = launch(Dispatchers.Main) {
         if (!mainLoopIsProducingResults.getAndSet(true)) {
             scanStat.trackResult("first_image_processed")
         }
@@ -242,7 +253,7 @@ abstract class CardScanBaseActivity :
         when (result.state) {
             is MainLoopState.Initial -> changeScanState(ScanState.NotFound)
             is MainLoopState.OcrRunning -> {
-                displayPan(result.analyzerResult.pan, result.state.getMostLikelyPan())
+                displayPan(result.analyzerResult.pan, mostLikelyPan)
                 if (willRunNameAndExpiry) {
                     changeScanState(ScanState.FoundLong)
                 } else {
@@ -250,7 +261,7 @@ abstract class CardScanBaseActivity :
                 }
             }
             is MainLoopState.NameAndExpiryRunning -> {
-                displayName(result.analyzerResult.pan, result.state.getMostLikelyName())
+                displayName(result.analyzerResult.pan, mostLikelyName)
                 if (willRunNameAndExpiry) {
                     changeScanState(ScanState.FoundLong)
                 } else {
@@ -261,7 +272,7 @@ abstract class CardScanBaseActivity :
         }
 
         showDebugFrame(result.frame, result.analyzerResult.panDetectionBoxes, result.analyzerResult.objDetectionBoxes)
-    }.let { Unit }
+    }
 
     override suspend fun onReset() = launch(Dispatchers.Main) { changeScanState(ScanState.NotFound) }.let { Unit }
 
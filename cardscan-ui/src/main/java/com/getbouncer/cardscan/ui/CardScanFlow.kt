@@ -8,18 +8,34 @@ import androidx.lifecycle.LifecycleOwner
 import com.getbouncer.cardscan.ui.analyzer.PaymentCardOcrAnalyzer
 import com.getbouncer.cardscan.ui.result.MainLoopAggregator
 import com.getbouncer.cardscan.ui.result.MainLoopState
+import com.getbouncer.scan.framework.AdaptiveWorkerController
 import com.getbouncer.scan.framework.AggregateResultListener
 import com.getbouncer.scan.framework.AnalyzerLoopErrorListener
 import com.getbouncer.scan.framework.AnalyzerPoolFactory
+import com.getbouncer.scan.framework.BackPressurePolicy
 import com.getbouncer.scan.framework.Config
+import com.getbouncer.scan.framework.DISPLAY_FRAME_INTERVAL
+import com.getbouncer.scan.framework.FrameDeadline
+import com.getbouncer.scan.framework.FrameGateCascade
+import com.getbouncer.scan.framework.FrameSimilarityCache
 import com.getbouncer.scan.framework.ProcessBoundAnalyzerLoop
+import com.getbouncer.scan.framework.ScanDispatchers
+import com.getbouncer.scan.framework.SimilarFramePolicy
+import com.getbouncer.scan.framework.StateFilteredFrameGate
+import com.getbouncer.scan.framework.WorkerCountStore
 import com.getbouncer.scan.framework.time.Clock
+import com.getbouncer.scan.framework.time.milliseconds
 import com.getbouncer.scan.framework.util.cacheFirstResultSuspend
 import com.getbouncer.scan.payment.analyzer.NameAndExpiryAnalyzer
+import com.getbouncer.scan.payment.gate.CardPresenceGate
+import com.getbouncer.scan.payment.gate.FrameQualityGate
+import com.getbouncer.scan.payment.gate.differenceHash
+import com.getbouncer.scan.payment.gate.getLuminanceThumbnail
 import com.getbouncer.scan.payment.ml.AlphabetDetect
 import com.getbouncer.scan.payment.ml.ExpiryDetect
 import com.getbouncer.scan.payment.ml.SSDOcr
 import com.getbouncer.scan.payment.ml.TextDetect
+import com.getbouncer.scan.payment.ml.ssd.OcrRegionTracker
 import com.getbouncer.scan.ui.ScanFlow
 import kotlinx.coroutines.CoroutineScope
 import kotlinx.coroutines.Dispatchers
@@ -30,6 +46,27 @@ import kotlinx.coroutines.flow.map
 import kotlinx.coroutines.launch
 import kotlinx.coroutines.runBlocking
 
+/**
+ * Frames that have waited longer than this to be analyzed no longer reflect what the user sees, and are dropped.
+ */
+private val MAXIMUM_FRAME_AGE = 500.milliseconds
+
+/**
+ * The name under which the tuned number of main loop workers is stored.
+ */
+private const val MAIN_LOOP_NAME = "card_scan_main_loop"
+
+/**
+ * The number of workers sharing each main loop analyzer, so that image preparation and result interpretation overlap
+ * with inference.
+ */
+private const val MAIN_LOOP_PIPELINE_DEPTH = 2
+
+/**
+ * The number of distinct main loop analyzers, each with its own interpreters.
+ */
+private const val MAIN_LOOP_ANALYZER_COUNT = 4
+
 /**
  * This class contains the scanning logic required for analyzing a credit card for scanning purposes.
  */
@@ -110,25 +147,46 @@ class CardScanFlow(
             return
         }
 
+        // this flow is started as soon as the camera is opened, so the scan is timed from here rather than from when
+        // the analyzers finish loading
+        val cameraOpenedAt = Clock.markNow()
+
         mainLoopResultAggregator = MainLoopAggregator(
             listener = resultListener,
             enableNameExtraction = enableNameExtraction,
-            enableExpiryExtraction = enableExpiryExtraction
+            enableExpiryExtraction = enableExpiryExtraction,
+            // the interim results are only used to update the UI, so skip any that could not be displayed
+            interimResultInterval = DISPLAY_FRAME_INTERVAL,
+            scanStartedAt = cameraOpenedAt
+        )
+
+        val workerCountStore = WorkerCountStore(context, MAIN_LOOP_NAME)
+        // the pipelined workers share interpreters, so size the threads by the interpreters that run concurrently
+        val interpreterThreads = ScanDispatchers.configureInterpreterThreads(
+            workerCountStore.getInterpreterThreads(MAIN_LOOP_ANALYZER_COUNT)
         )
 
+        val ocrRegionTracker = OcrRegionTracker()
+
         val analyzerPool = runBlocking {
             val nameDetect = if (attemptedNameAndExpiryInitialization) {
                 NameAndExpiryAnalyzer.Factory<MainLoopState>(
-                    TextDetect.Factory(context, getTextDetectorModel(context, true)),
-                    AlphabetDetect.Factory(context, getAlphabetDetectorModel(context, true)),
-                    ExpiryDetect.Factory(context, getExpiryDetectorModel(context, true))
+                    TextDetect.Factory(context, getTextDetectorModel(context, true), interpreterThreads),
+                    AlphabetDetect.Factory(context, getAlphabetDetectorModel(context, true), interpreterThreads),
+                    ExpiryDetect.Factory(context, getExpiryDetectorModel(context, true), interpreterThreads)
                 )
             } else {
                 null
             }
 
             AnalyzerPoolFactory(
-                PaymentCardOcrAnalyzer.Factory(SSDOcr.Factory(context, getSsdOcrModel(context, true)), nameDetect)
+                PaymentCardOcrAnalyzer.Factory(
+                    SSDOcr.Factory(context, getSsdOcrModel(context, true), interpreterThreads),
+                    nameDetect,
+                    ocrRegionTracker
+                ),
+                desiredAnalyzerCount = MAIN_LOOP_ANALYZER_COUNT,
+                pipelineDepth = MAIN_LOOP_PIPELINE_DEPTH
             ).buildAnalyzerPool()
         }
 
@@ -138,7 +196,25 @@ class CardScanFlow(
         val mainLoop = ProcessBoundAnalyzerLoop(
             analyzerPool = analyzerPool,
             resultHandler = mainLoopResultAggregator,
-            analyzerLoopErrorListener = errorListener
+            analyzerLoopErrorListener = errorListener,
+            frameDeadline = FrameDeadline(MAXIMUM_FRAME_AGE) { it.capturedAt },
+            // only tune the number of workers the first time this device scans
+            workerController = AdaptiveWorkerController(
+                listener = workerCountStore,
+                settledWorkers = workerCountStore.getWorkerCount()
+            ),
+            frameGate = FrameGateCascade(
+                // only look for a card until one has been read
+                StateFilteredFrameGate(CardPresenceGate()) { it is MainLoopState.Initial },
+                FrameQualityGate()
+            ),
+            // while no card has been read, skip frames of a still scene. Once a card is being read, every frame is
+            // another vote for its number, so the cache is bypassed and frames are not fingerprinted.
+            similarityCache = FrameSimilarityCache(
+                fingerprint = { getLuminanceThumbnail(it).differenceHash() },
+                policy = SimilarFramePolicy.SKIP_FRAME,
+                appliesTo = { it is MainLoopState.Initial }
+            )
         )
 
         mainLoop.subscribeTo(
@@ -147,10 +223,12 @@ class CardScanFlow(
                     fullImage = it,
                     previewSize = previewSize,
                     cardFinder = viewFinder,
-                    capturedAt = Clock.markNow()
+                    capturedAt = Clock.markNow(),
+                    ocrRegion = ocrRegionTracker.getRegion()
                 )
             },
-            processingCoroutineScope = coroutineScope
+            processingCoroutineScope = coroutineScope,
+            backPressurePolicy = BackPressurePolicy.ConflateLatest
         )
     }
 
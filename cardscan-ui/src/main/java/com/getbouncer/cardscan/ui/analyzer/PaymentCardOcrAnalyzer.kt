@@ -7,12 +7,18 @@ import com.getbouncer.scan.payment.analyzer.NameAndExpiryAnalyzer
 import com.getbouncer.scan.payment.ml.ExpiryDetect
 import com.getbouncer.scan.payment.ml.SSDOcr
 import com.getbouncer.scan.payment.ml.ssd.DetectionBox
+import com.getbouncer.scan.payment.ml.ssd.OcrRegionTracker
 import kotlinx.coroutines.async
 import kotlinx.coroutines.supervisorScope
 
+/**
+ * Read the PAN, name, and expiry from a card. If an [ocrRegionTracker] is provided, it is updated with the PAN read
+ * from each frame so that later frames can run OCR on just the region containing the digits.
+ */
 class PaymentCardOcrAnalyzer private constructor(
     private val ssdOcr: SSDOcr?,
-    private val nameAndExpiryAnalyzer: NameAndExpiryAnalyzer<MainLoopState>?
+    private val nameAndExpiryAnalyzer: NameAndExpiryAnalyzer<MainLoopState>?,
+    private val ocrRegionTracker: OcrRegionTracker?
 ) : Analyzer<SSDOcr.Input, MainLoopState, PaymentCardOcrAnalyzer.Prediction> {
 
     data class Prediction(
@@ -25,7 +31,14 @@ class PaymentCardOcrAnalyzer private constructor(
         val isNameExtractionAvailable: Boolean
     )
 
-    override suspend fun analyze(data: SSDOcr.Input, state: MainLoopState) = supervisorScope {
+    override suspend fun analyze(data: SSDOcr.Input, state: MainLoopState) = try {
+        analyzeFrame(data, state)
+    } finally {
+        // the images derived from this frame are no longer needed once all sub-analyzers are complete
+        data.derivedImages.clear()
+    }
+
+    private suspend fun analyzeFrame(data: SSDOcr.Input, state: MainLoopState) = supervisorScope {
         val nameAndExpiryDeferred = if ((state.runNameExtraction || state.runExpiryExtraction) && nameAndExpiryAnalyzer != null) {
             this.async {
                 nameAndExpiryAnalyzer.analyze(data, state)
@@ -36,7 +49,7 @@ class PaymentCardOcrAnalyzer private constructor(
 
         val ocrDeferred = if (state.runOcr && ssdOcr != null) {
             this.async {
-                ssdOcr.analyze(data, Unit)
+                ssdOcr.analyze(data, Unit).also { ocrRegionTracker?.update(it.pan, it.detectedBoxes) }
             }
         } else {
             null
@@ -53,13 +66,15 @@ class PaymentCardOcrAnalyzer private constructor(
         )
     }
 
-    class Factory(
-        private val ssdOcrFactory: SSDOcr.Factory,
-        private val nameDetectFactory: NameAndExpiryAnalyzer.Factory<MainLoopState>?
+    class Factory @JvmOverloads constructor(
+        private val ssdOcrFactory: AnalyzerFactory<SSDOcr>,
+        private val nameDetectFactory: NameAndExpiryAnalyzer.Factory<MainLoopState>?,
+        private val ocrRegionTracker: OcrRegionTracker? = null
     ) : AnalyzerFactory<PaymentCardOcrAnalyzer> {
         override suspend fun newInstance(): PaymentCardOcrAnalyzer? = PaymentCardOcrAnalyzer(
             ssdOcrFactory.newInstance(),
-            nameDetectFactory?.newInstance()
+            nameDetectFactory?.newInstance(),
+            ocrRegionTracker
         )
     }
 }
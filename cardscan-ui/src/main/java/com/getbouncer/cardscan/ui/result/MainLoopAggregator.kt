@@ -3,6 +3,10 @@ package com.getbouncer.cardscan.ui.result
 import com.getbouncer.cardscan.ui.analyzer.PaymentCardOcrAnalyzer
 import com.getbouncer.scan.framework.AggregateResultListener
 import com.getbouncer.scan.framework.ResultAggregator
+import com.getbouncer.scan.framework.ScanPhaseTracker
+import com.getbouncer.scan.framework.time.Clock
+import com.getbouncer.scan.framework.time.ClockMark
+import com.getbouncer.scan.framework.time.Duration
 import com.getbouncer.scan.payment.ml.ExpiryDetect
 import com.getbouncer.scan.payment.ml.SSDOcr
 
@@ -19,12 +23,15 @@ class MainLoopAggregator(
     listener: AggregateResultListener<InterimResult, FinalResult>,
     private val enableNameExtraction: Boolean = false,
     private val enableExpiryExtraction: Boolean = false,
+    interimResultInterval: Duration? = null,
+    scanStartedAt: ClockMark = Clock.markNow(),
 ) : ResultAggregator<SSDOcr.Input, MainLoopState, PaymentCardOcrAnalyzer.Prediction, MainLoopAggregator.InterimResult, MainLoopAggregator.FinalResult>(
     listener = listener,
     initialState = MainLoopState.Initial(
         enableNameExtraction = enableNameExtraction,
         enableExpiryExtraction = enableExpiryExtraction,
-    )
+    ),
+    interimResultInterval = interimResultInterval,
 ) {
     data class FinalResult(
         val pan: String?,
@@ -39,6 +46,12 @@ class MainLoopAggregator(
         val state: MainLoopState,
     )
 
+    private val phaseTracker = ScanPhaseTracker(scanStartedAt)
+
+    override suspend fun onReset() {
+        phaseTracker.reset()
+    }
+
     override suspend fun aggregateResult(
         frame: SSDOcr.Input,
         result: PaymentCardOcrAnalyzer.Prediction,
@@ -48,6 +61,8 @@ class MainLoopAggregator(
 
         state = currentState
 
+        phaseTracker.trackFrame(previousState.phaseName(), currentState.phaseName(), frame.capturedAt)
+
         val interimResult = InterimResult(
             analyzerResult = result,
             frame = frame,
@@ -55,6 +70,8 @@ class MainLoopAggregator(
         )
 
         return if (currentState is MainLoopState.Finished) {
+            phaseTracker.finish()
+
             val errors = mutableListOf<String>()
             if (!result.isNameExtractionAvailable && enableNameExtraction) {
                 errors.add("name")
@@ -78,3 +95,13 @@ class MainLoopAggregator(
         }
     }
 }
+
+/**
+ * The name of this state when reported as a scan phase.
+ */
+private fun MainLoopState.phaseName() = when (this) {
+    is MainLoopState.Initial -> "initial"
+    is MainLoopState.OcrRunning -> "ocr_running"
+    is MainLoopState.NameAndExpiryRunning -> "name_and_expiry_running"
+    is MainLoopState.Finished -> "finished"
+}
@@ -8,6 +8,8 @@ import com.getbouncer.scan.framework.util.ItemTotalCounter
 import com.getbouncer.scan.payment.analyzer.NameAndExpiryAnalyzer
 import com.getbouncer.scan.payment.card.isValidPan
 import com.getbouncer.scan.payment.ml.ExpiryDetect
+import com.getbouncer.scan.payment.ml.ssd.DetectionBox
+import com.getbouncer.scan.payment.ml.ssd.PanDigitFusion
 
 @VisibleForTesting
 internal const val DESIRED_PAN_AGREEMENT = 5
@@ -56,42 +58,48 @@ sealed class MainLoopState(
     ) : MainLoopState(runOcr = true, runNameExtraction = false, runExpiryExtraction = false) {
         override suspend fun consumeTransition(transition: PaymentCardOcrAnalyzer.Prediction): MainLoopState = when {
             isValidPan(transition.pan) && transition.pan != null ->
-                OcrRunning(transition.pan, enableNameExtraction, enableExpiryExtraction)
+                OcrRunning(transition.pan, enableNameExtraction, enableExpiryExtraction, transition.panDetectionBoxes)
             else -> this
         }
     }
 
     /**
-     * The state of the main loop where OCR is running.
+     * The state of the main loop where OCR is running. The PAN is confirmed once enough frames read the same PAN, or
+     * once the digits read across frames fuse into a valid PAN.
      */
     class OcrRunning(
         firstPan: String,
         private val enableNameExtraction: Boolean,
         private val enableExpiryExtraction: Boolean,
+        firstPanDigits: List<DetectionBox>? = null,
     ) : MainLoopState(runOcr = true, runNameExtraction = false, runExpiryExtraction = false) {
         private val panCounter = ItemTotalCounter(firstPan)
+        private val panFusion = PanDigitFusion().apply { firstPanDigits?.let { add(it) } }
 
-        fun getMostLikelyPan() = panCounter.getHighestCountItem()?.second
+        fun getMostLikelyPan() = panFusion.getFusedPan() ?: panCounter.getHighestCountItem()?.second
 
         override suspend fun consumeTransition(transition: PaymentCardOcrAnalyzer.Prediction): MainLoopState {
             if (isValidPan(transition.pan) && transition.pan != null) {
                 panCounter.countItem(transition.pan)
             }
 
+            val fusedPan = transition.panDetectionBoxes?.let { panFusion.add(it) } ?: panFusion.getFusedPan()
+
             val nameOrExpiryEnabled = enableNameExtraction || enableExpiryExtraction
             val (panAgreements, mostLikelyPan) = panCounter.getHighestCountItem() ?: 0 to null
+            val confirmedPan = fusedPan ?: mostLikelyPan.takeIf { panAgreements >= DESIRED_PAN_AGREEMENT }
             val timeElapsed = reachedStateAt.elapsedSince()
 
             return when {
-                panAgreements >= DESIRED_PAN_AGREEMENT && mostLikelyPan != null ->
+                confirmedPan != null ->
                     if (enableNameExtraction || enableExpiryExtraction) {
                         NameAndExpiryRunning(
-                            pan = mostLikelyPan,
+                            pan = confirmedPan,
                             enableNameExtraction = enableNameExtraction,
                             enableExpiryExtraction = enableExpiryExtraction,
                         )
                     } else {
-                        Finished(mostLikelyPan, null, null)
+                        Finished(confirmedPan, null, null)
                     }
                 timeElapsed > OCR_TIMEOUT_WITHOUT_NAME_AND_EXPIRY && !nameOrExpiryEnabled ->
                     Finished(mostLikelyPan ?: "", null, null)
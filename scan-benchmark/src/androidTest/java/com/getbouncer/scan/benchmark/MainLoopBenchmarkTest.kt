@@ -0,0 +1,108 @@
+package com.getbouncer.scan.benchmark
+
+import android.graphics.Bitmap
+import android.graphics.Color
+import android.graphics.Rect
+import android.util.Log
+import android.util.Size
+import androidx.test.filters.LargeTest
+import androidx.test.platform.app.InstrumentationRegistry
+import com.getbouncer.cardscan.ui.analyzer.PaymentCardOcrAnalyzer
+import com.getbouncer.scan.benchmark.cardscan.ReplaySSDOcrFactory
+import com.getbouncer.scan.benchmark.cardscan.StubPaymentCardOcrAnalyzer
+import com.getbouncer.scan.benchmark.cardscan.cardScanBenchmark
+import com.getbouncer.scan.benchmark.micro.Fixtures
+import com.getbouncer.scan.framework.source.CaptureFileFrameSource
+import com.getbouncer.scan.framework.source.RecordedFrame
+import com.getbouncer.scan.framework.source.ReplayFrameSource
+import com.getbouncer.scan.framework.source.ReplaySpeed
+import com.getbouncer.scan.framework.time.Clock
+import com.getbouncer.scan.framework.time.milliseconds
+import com.getbouncer.scan.payment.ml.SSDOcr
+import kotlinx.coroutines.flow.Flow
+import kotlinx.coroutines.flow.map
+import kotlinx.coroutines.runBlocking
+import org.junit.Test
+import java.io.File
+import kotlin.test.assertTrue
+
+private const val SAMPLE_PAN = "4847186095118770"
+private const val SYNTHETIC_FRAME_COUNT = 300
+
+/**
+ * Benchmark the card scan main loop with a stub in place of the OCR model.
+ *
+ * Frames are replayed from the capture file given by the `captureFile` instrumentation argument, or generated if no
+ * capture file is given. The report is written as JSON to the app's external files directory, and the `label`
+ * instrumentation argument, such as a commit hash, is included in the report so runs can be compared.
+ *
+ * ```
+ * ./gradlew :scan-benchmark:connectedAndroidTest \
+ *     -Pandroid.testInstrumentationRunnerArguments.captureFile=/sdcard/capture.bin \
+ *     -Pandroid.testInstrumentationRunnerArguments.label=$(git rev-parse --short HEAD)
+ * ```
+ */
+class MainLoopBenchmarkTest {
+    private val arguments = InstrumentationRegistry.getArguments()
+    private val appContext = InstrumentationRegistry.getInstrumentation().targetContext
+
+    @Test
+    @LargeTest
+    fun mainLoop_stubbedOcr() = runBlocking {
+        val benchmark = cardScanBenchmark(
+            name = "main_loop_stubbed_ocr",
+            analyzerFactory = StubPaymentCardOcrAnalyzer.Factory(SAMPLE_PAN, inferenceLatency = 30.milliseconds)
+        )
+
+        runAndReport(benchmark)
+    }
+
+    /**
+     * Run the real OCR analyzer with the model replaced by recorded model output, so that post-processing is included
+     * in the benchmark.
+     */
+    @Test
+    @LargeTest
+    fun mainLoop_replayedOcr() = runBlocking {
+        val benchmark = cardScanBenchmark(
+            name = "main_loop_replayed_ocr",
+            analyzerFactory = PaymentCardOcrAnalyzer.Factory(
+                ReplaySSDOcrFactory(listOf(Fixtures.ocrOutput()), inferenceLatency = 30.milliseconds),
+                nameDetectFactory = null
+            )
+        )
+
+        runAndReport(benchmark)
+    }
+
+    private suspend fun runAndReport(benchmark: PipelineBenchmark<SSDOcr.Input, *, *>) {
+        val report = benchmark.run(frames(), arguments.getString("label"))
+
+        val reportFile = File(appContext.getExternalFilesDir("benchmarks"), "${report.name}.json")
+        report.writeTo(reportFile)
+        Log.i("Benchmark", "Wrote benchmark report to ${reportFile.absolutePath}")
+
+        assertTrue(report.completed, "Main loop did not reach a result")
+    }
+
+    private fun frames(): Flow<SSDOcr.Input> {
+        val captureFile = arguments.getString("captureFile")
+        return if (captureFile != null) {
+            CaptureFileFrameSource(File(captureFile), ReplaySpeed.Native).frames().map {
+                SSDOcr.Input(it.toBitmap(), it.previewSize, it.cardFinder, Clock.markNow())
+            }
+        } else {
+            syntheticFrames()
+        }
+    }
+
+    private fun syntheticFrames(): Flow<SSDOcr.Input> {
+        val image = Bitmap.createBitmap(1280, 720, Bitmap.Config.ARGB_8888).apply { eraseColor(Color.GRAY) }
+        val previewSize = Size(1280, 720)
+        val cardFinder = Rect(240, 135, 1040, 585)
+
+        return ReplayFrameSource(ReplaySpeed.FixedRate(30.0)) {
+            (0 until SYNTHETIC_FRAME_COUNT).asSequence().map { RecordedFrame(image, (it * 33).milliseconds) }
+        }.frames().map { SSDOcr.Input(it, previewSize, cardFinder, Clock.markNow()) }
+    }
+}
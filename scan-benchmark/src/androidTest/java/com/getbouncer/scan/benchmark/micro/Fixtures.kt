@@ -0,0 +1,173 @@
+package com.getbouncer.scan.benchmark.micro
+
+import androidx.core.graphics.drawable.toBitmap
+import androidx.test.platform.app.InstrumentationRegistry
+import com.getbouncer.scan.benchmark.test.R
+import com.getbouncer.scan.framework.Loader
+import com.getbouncer.scan.framework.ml.ReplayInferenceEngine
+import com.getbouncer.scan.framework.ml.TensorFlowLiteEngine
+import com.getbouncer.scan.framework.ml.ssd.ClassifierScores
+import com.getbouncer.scan.framework.ml.ssd.RectForm
+import com.getbouncer.scan.framework.ml.ssd.SizeAndCenter
+import com.getbouncer.scan.framework.ml.ssd.adjustLocations
+import com.getbouncer.scan.framework.ml.ssd.softMax
+import com.getbouncer.scan.framework.ml.ssd.toRectForm
+import com.getbouncer.scan.framework.util.reshape
+import com.getbouncer.scan.payment.ml.SSDOcr
+import com.getbouncer.scan.payment.ml.SSDOcrTestAccess
+import com.getbouncer.scan.payment.ml.ssd.DetectionBox
+import com.getbouncer.scan.payment.ml.ssd.extractPredictions
+import com.getbouncer.scan.payment.scale
+import com.getbouncer.scan.payment.toRGBByteBuffer
+import kotlinx.coroutines.runBlocking
+import org.tensorflow.lite.Interpreter
+import kotlin.random.Random
+
+/*
+ * These values match the private configuration of [SSDOcr].
+ */
+private const val IMAGE_MEAN = 127.5F
+private const val IMAGE_STD = 128.5F
+private const val NUM_OF_PRIORS = 3420
+
+internal const val NUM_OF_CLASSES = 11
+internal const val NUM_OF_COORDINATES = 4
+internal const val PROB_THRESHOLD = 0.50F
+internal const val IOU_THRESHOLD = 0.50F
+internal const val CENTER_VARIANCE = 0.1F
+internal const val SIZE_VARIANCE = 0.2F
+internal const val VERTICAL_THRESHOLD = 2.0F
+internal const val LIMIT = 20
+
+internal val PRIORS: Array<SizeAndCenter> = SSDOcrTestAccess.priors
+
+/**
+ * The PAN printed on the sample card image.
+ */
+internal const val SAMPLE_CARD_PAN = "4557095462268383"
+
+/*
+ * The shape of the first layer of the text detection YOLO model, matching the private configuration of
+ * [com.getbouncer.scan.payment.ml.TextDetect].
+ */
+internal const val YOLO_LAYER_SIZE = 13
+internal const val YOLO_NUM_CLASSES = 4
+internal val YOLO_ANCHORS = arrayOf(Pair(81, 82), Pair(135, 169), Pair(344, 319))
+
+private fun Array<FloatArray>.deepCopy() = Array(size) { this[it].copyOf() }
+
+/**
+ * Tensors used as inputs to the microbenchmarks.
+ *
+ * The SSD OCR tensors are recorded by running the bundled SSD OCR model on a sample card image once per process, so
+ * post-processing is measured on the same detections it sees on a device. Each accessor returns a fresh copy, since
+ * several post-processing steps update their inputs in place.
+ */
+internal object Fixtures {
+
+    private val ocrOutput: Map<Int, Array<FloatArray>> by lazy { runBlocking { recordSsdOcrOutput() } }
+
+    private val rearrangedLocations by lazy {
+        SSDOcrTestAccess.rearrangeLocations(ocrOutput.getValue(1))
+    }
+
+    private val rearrangedClasses by lazy {
+        SSDOcrTestAccess.rearrangeClasses(ocrOutput.getValue(0))
+    }
+
+    private val boxes: Array<RectForm> by lazy {
+        rearrangedLocations.reshape(NUM_OF_COORDINATES).apply {
+            adjustLocations(PRIORS, CENTER_VARIANCE, SIZE_VARIANCE)
+            forEach { it.toRectForm() }
+        }
+    }
+
+    private val scores: Array<ClassifierScores> by lazy {
+        rearrangedClasses.reshape(NUM_OF_CLASSES).apply { forEach { it.softMax() } }
+    }
+
+    private val detectionBoxes by lazy {
+        extractPredictions(
+            scores = scores,
+            boxes = boxes,
+            probabilityThreshold = PROB_THRESHOLD,
+            intersectionOverUnionThreshold = IOU_THRESHOLD,
+            limit = LIMIT,
+            classifierToLabel = { if (it == 10) 0 else it }
+        ).sortedBy { it.rect.left }
+    }
+
+    private val yoloLayer by lazy { generateYoloLayer() }
+
+    /** The raw class output of the SSD OCR model. */
+    fun ocrClasses() = ocrOutput.getValue(0).deepCopy()
+
+    /** The raw location output of the SSD OCR model. */
+    fun ocrLocations() = ocrOutput.getValue(1).deepCopy()
+
+    /** The raw output of the SSD OCR model by output index, for replay by a [ReplayInferenceEngine]. */
+    fun ocrOutput(): Map<Int, Any> = mapOf(0 to ocrClasses(), 1 to ocrLocations())
+
+    /** The rearranged location output, before reshaping. */
+    fun rearrangedLocations() = rearrangedLocations.deepCopy()
+
+    /** The location output reshaped into one [SizeAndCenter] per prior, before adjustment. */
+    fun unadjustedLocations(): Array<SizeAndCenter> = rearrangedLocations.reshape(NUM_OF_COORDINATES)
+
+    /** The class output reshaped into one [ClassifierScores] per prior, before the soft max. */
+    fun rawScores(): Array<ClassifierScores> = rearrangedClasses.reshape(NUM_OF_CLASSES)
+
+    /** The adjusted boxes of every prior. */
+    fun boxes() = boxes.deepCopy()
+
+    /** The normalized scores of every prior. */
+    fun scores() = scores.deepCopy()
+
+    /** The digit boxes detected on the sample card, sorted from left to right. */
+    fun detectionBoxes(): List<DetectionBox> = detectionBoxes.toList()
+
+    /** A layer of text detection YOLO output. */
+    fun yoloLayer() = yoloLayer
+
+    /**
+     * Run the bundled SSD OCR model on the sample card image and return its raw output.
+     */
+    private suspend fun recordSsdOcrOutput(): Map<Int, Array<FloatArray>> {
+        val instrumentation = InstrumentationRegistry.getInstrumentation()
+        val appContext = instrumentation.targetContext
+        val model = Loader(appContext).loadData(SSDOcr.ModelFetcher(appContext).fetchData(forImmediateUse = true))
+        checkNotNull(model) { "Unable to load the SSD OCR model" }
+
+        val card = instrumentation.context.resources.getDrawable(R.drawable.ocr_card_numbers_clear, null).toBitmap()
+        val input = card.scale(SSDOcr.Factory.TRAINED_IMAGE_SIZE).toRGBByteBuffer(mean = IMAGE_MEAN, std = IMAGE_STD)
+        val output = mapOf(
+            0 to arrayOf(FloatArray(NUM_OF_CLASSES * NUM_OF_PRIORS)),
+            1 to arrayOf(FloatArray(NUM_OF_COORDINATES * NUM_OF_PRIORS))
+        )
+
+        TensorFlowLiteEngine(Interpreter(model)).use { it.runForMultipleInputsOutputs(arrayOf(input), output) }
+
+        return output
+    }
+
+    /**
+     * The text detection model is downloaded at runtime rather than bundled, so its output cannot be recorded here.
+     * Instead, generate a layer of logits with a fixed seed in which a few cells hold confident detections of numbers.
+     */
+    private fun generateYoloLayer(): Array<Array<FloatArray>> {
+        val random = Random(42)
+        val depth = (YOLO_NUM_CLASSES + 5) * YOLO_ANCHORS.size
+        return Array(YOLO_LAYER_SIZE) {
+            Array(YOLO_LAYER_SIZE) {
+                val confident = random.nextFloat() < 0.05F
+                FloatArray(depth) { index ->
+                    when (index % (YOLO_NUM_CLASSES + 5)) {
+                        4 -> if (confident) 4F else -6F + random.nextFloat()
+                        7 -> if (confident) 4F else random.nextFloat() * 2 - 1
+                        else -> random.nextFloat() * 2 - 1
+                    }
+                }
+            }
+        }
+    }
+}
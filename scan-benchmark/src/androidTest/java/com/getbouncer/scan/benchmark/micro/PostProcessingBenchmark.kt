@@ -0,0 +1,165 @@
+package com.getbouncer.scan.benchmark.micro
+
+import android.util.Size
+import androidx.benchmark.junit4.BenchmarkRule
+import androidx.benchmark.junit4.measureRepeated
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import androidx.test.filters.LargeTest
+import com.getbouncer.scan.framework.ml.hardNonMaximumSuppression
+import com.getbouncer.scan.framework.ml.ssd.adjustLocations
+import com.getbouncer.scan.framework.ml.ssd.softMax
+import com.getbouncer.scan.framework.ml.ssd.toRectForm
+import com.getbouncer.scan.framework.util.filterByIndexes
+import com.getbouncer.scan.framework.util.filteredIndexes
+import com.getbouncer.scan.framework.util.reshape
+import com.getbouncer.scan.framework.util.transpose
+import com.getbouncer.scan.payment.ml.SSDOcrTestAccess
+import com.getbouncer.scan.payment.ml.ssd.determineLayoutAndFilter
+import com.getbouncer.scan.payment.ml.ssd.extractPredictions
+import com.getbouncer.scan.payment.ml.yolo.processYoloLayer
+import org.junit.Rule
+import org.junit.Test
+import org.junit.runner.RunWith
+
+/**
+ * Microbenchmarks of each step of post-processing the output of the SSD OCR and text detection models.
+ *
+ * Run with `./gradlew :scan-benchmark:connectedAndroidTest`. Results are written to the console and as JSON to the
+ * device's benchmark output directory.
+ */
+@LargeTest
+@RunWith(AndroidJUnit4::class)
+class PostProcessingBenchmark {
+
+    @get:Rule
+    val benchmarkRule = BenchmarkRule()
+
+    @Test
+    fun rearrangeOcrArray_locations() {
+        val locations = Fixtures.ocrLocations()
+        benchmarkRule.measureRepeated {
+            SSDOcrTestAccess.rearrangeLocations(locations)
+        }
+    }
+
+    @Test
+    fun rearrangeOcrArray_classes() {
+        val classes = Fixtures.ocrClasses()
+        benchmarkRule.measureRepeated {
+            SSDOcrTestAccess.rearrangeClasses(classes)
+        }
+    }
+
+    @Test
+    fun reshape_locations() {
+        val locations = Fixtures.rearrangedLocations()
+        benchmarkRule.measureRepeated {
+            locations.reshape(NUM_OF_COORDINATES)
+        }
+    }
+
+    @Test
+    fun transpose_scores() {
+        val scores = Fixtures.scores()
+        benchmarkRule.measureRepeated {
+            scores.transpose()
+        }
+    }
+
+    @Test
+    fun adjustLocations_ocr() {
+        benchmarkRule.measureRepeated {
+            val boxes = runWithTimingDisabled { Fixtures.unadjustedLocations() }
+            boxes.adjustLocations(PRIORS, CENTER_VARIANCE, SIZE_VARIANCE)
+            boxes.forEach { it.toRectForm() }
+        }
+    }
+
+    @Test
+    fun softMax_scores() {
+        benchmarkRule.measureRepeated {
+            val scores = runWithTimingDisabled { Fixtures.rawScores() }
+            scores.forEach { it.softMax() }
+        }
+    }
+
+    @Test
+    fun hardNonMaximumSuppression_digits() {
+        // the candidate boxes of the most frequently detected digit, as extractPredictions would pass them
+        val boxes = Fixtures.boxes()
+        val classifierScores = Fixtures.scores().transpose()
+        val digitScores = (1 until classifierScores.size)
+            .map { classifierScores[it] }
+            .maxByOrNull { scores -> scores.count { it >= PROB_THRESHOLD } }
+            ?: classifierScores.last()
+        val indexes = digitScores.filteredIndexes { it >= PROB_THRESHOLD }
+        val candidateBoxes = boxes.filterByIndexes(indexes)
+        val candidateScores = digitScores.filterByIndexes(indexes)
+
+        benchmarkRule.measureRepeated {
+            hardNonMaximumSuppression(candidateBoxes, candidateScores, IOU_THRESHOLD, LIMIT)
+        }
+    }
+
+    @Test
+    fun extractPredictions_digits() {
+        val scores = Fixtures.scores()
+        val boxes = Fixtures.boxes()
+        benchmarkRule.measureRepeated {
+            extractPredictions(
+                scores = scores,
+                boxes = boxes,
+                probabilityThreshold = PROB_THRESHOLD,
+                intersectionOverUnionThreshold = IOU_THRESHOLD,
+                limit = LIMIT,
+                classifierToLabel = { if (it == 10) 0 else it }
+            )
+        }
+    }
+
+    @Test
+    fun determineLayoutAndFilter_digits() {
+        val detectionBoxes = Fixtures.detectionBoxes()
+        benchmarkRule.measureRepeated {
+            determineLayoutAndFilter(detectionBoxes, VERTICAL_THRESHOLD)
+        }
+    }
+
+    /**
+     * All the post-processing steps of [com.getbouncer.scan.payment.ml.SSDOcr] together.
+     */
+    @Test
+    fun ssdOcr_postProcessing() {
+        benchmarkRule.measureRepeated {
+            val (classes, locations) = runWithTimingDisabled { Fixtures.ocrClasses() to Fixtures.ocrLocations() }
+
+            val boxes = SSDOcrTestAccess.rearrangeLocations(locations).reshape(NUM_OF_COORDINATES)
+            boxes.adjustLocations(PRIORS, CENTER_VARIANCE, SIZE_VARIANCE)
+            boxes.forEach { it.toRectForm() }
+
+            val scores = SSDOcrTestAccess.rearrangeClasses(classes).reshape(NUM_OF_CLASSES)
+            scores.forEach { it.softMax() }
+
+            determineLayoutAndFilter(
+                extractPredictions(
+                    scores = scores,
+                    boxes = boxes,
+                    probabilityThreshold = PROB_THRESHOLD,
+                    intersectionOverUnionThreshold = IOU_THRESHOLD,
+                    limit = LIMIT,
+                    classifierToLabel = { if (it == 10) 0 else it }
+                ).sortedBy { it.rect.left },
+                VERTICAL_THRESHOLD
+            )
+        }
+    }
+
+    @Test
+    fun processYoloLayer_textDetection() {
+        val layer = Fixtures.yoloLayer()
+        val imageSize = Size(416, 416)
+        benchmarkRule.measureRepeated {
+            processYoloLayer(layer, YOLO_ANCHORS, imageSize, YOLO_NUM_CLASSES, PROB_THRESHOLD)
+        }
+    }
+}
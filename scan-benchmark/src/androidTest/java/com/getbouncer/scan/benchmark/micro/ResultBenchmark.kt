@@ -0,0 +1,57 @@
+package com.getbouncer.scan.benchmark.micro
+
+import androidx.benchmark.junit4.BenchmarkRule
+import androidx.benchmark.junit4.measureRepeated
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import androidx.test.filters.LargeTest
+import com.getbouncer.scan.framework.util.ItemTotalCounter
+import com.getbouncer.scan.payment.card.isValidPan
+import kotlinx.coroutines.runBlocking
+import org.junit.Rule
+import org.junit.Test
+import org.junit.runner.RunWith
+
+/**
+ * The PANs read from a sequence of frames of the sample card, including occasional misreads.
+ */
+private val PAN_READS = List(30) {
+    when (it % 10) {
+        3 -> "4557095462268388"
+        7 -> "455709546226838"
+        else -> SAMPLE_CARD_PAN
+    }
+}
+
+/**
+ * Microbenchmarks of the validation and aggregation of OCR results.
+ */
+@LargeTest
+@RunWith(AndroidJUnit4::class)
+class ResultBenchmark {
+
+    @get:Rule
+    val benchmarkRule = BenchmarkRule()
+
+    @Test
+    fun isValidPan_samplePan() {
+        benchmarkRule.measureRepeated {
+            isValidPan(SAMPLE_CARD_PAN)
+        }
+    }
+
+    /**
+     * Count the PANs read from a scan and find the most common one after each read, as the main loop does.
+     */
+    @Test
+    fun itemTotalCounter_countAndFindMostCommon() {
+        benchmarkRule.measureRepeated {
+            val counter = ItemTotalCounter<String>()
+            runBlocking {
+                for (pan in PAN_READS) {
+                    counter.countItem(pan)
+                    counter.getHighestCountItem()
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package com.getbouncer.scan.benchmark
+
+import kotlinx.serialization.SerialName
+import kotlinx.serialization.Serializable
+import kotlinx.serialization.json.Json
+import java.io.File
+
+private val reportJson = Json { prettyPrint = true }
+
+/**
+ * The results of a benchmark run, in a form that can be written to a file and compared across runs.
+ */
+@Serializable
+data class BenchmarkReport(
+
+    /**
+     * The name of the benchmark.
+     */
+    @SerialName("name") val name: String,
+
+    /**
+     * A label for this run, such as the commit being benchmarked.
+     */
+    @SerialName("label") val label: String?,
+
+    @SerialName("device") val device: String,
+    @SerialName("duration_ms") val durationMs: Double,
+    @SerialName("frames_delivered") val framesDelivered: Int,
+    @SerialName("frames_analyzed") val framesAnalyzed: Int,
+    @SerialName("frames_per_second") val framesPerSecond: Double,
+
+    /**
+     * True if the result handler finished before the frames ran out.
+     */
+    @SerialName("completed") val completed: Boolean,
+
+    /**
+     * The number of frames analyzed before each state of the result handler was first reached.
+     */
+    @SerialName("frames_to_state") val framesToState: Map<String, Int>,
+
+    @SerialName("stage_latency") val stageLatency: Map<String, LatencySummary>,
+    @SerialName("allocations_per_frame") val allocationsPerFrame: Double,
+    @SerialName("allocated_bytes_per_frame") val allocatedBytesPerFrame: Double,
+    @SerialName("peak_heap_bytes") val peakHeapBytes: Long,
+    @SerialName("analyzer_failures") val analyzerFailures: Int,
+    @SerialName("result_failures") val resultFailures: Int
+) {
+    fun toJson(): String = reportJson.encodeToString(serializer(), this)
+
+    /**
+     * Write this report as JSON to a [file], replacing its contents.
+     */
+    fun writeTo(file: File) {
+        file.parentFile?.mkdirs()
+        file.writeText(toJson())
+    }
+}
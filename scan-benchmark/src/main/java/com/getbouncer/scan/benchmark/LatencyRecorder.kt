@@ -0,0 +1,61 @@
+package com.getbouncer.scan.benchmark
+
+import com.getbouncer.scan.framework.time.Duration
+import kotlinx.serialization.SerialName
+import kotlinx.serialization.Serializable
+import kotlin.math.ceil
+
+/**
+ * Latency percentiles of a pipeline stage, in milliseconds.
+ */
+@Serializable
+data class LatencySummary(
+    @SerialName("samples") val samples: Int,
+    @SerialName("p50_ms") val p50Ms: Double,
+    @SerialName("p90_ms") val p90Ms: Double,
+    @SerialName("p99_ms") val p99Ms: Double,
+    @SerialName("max_ms") val maxMs: Double
+)
+
+/**
+ * Calculate the [percentile] (between 0 and 100) of a sorted list of values using the nearest-rank method.
+ */
+internal fun percentile(sortedValues: List<Long>, percentile: Double): Long {
+    require(sortedValues.isNotEmpty()) { "Cannot calculate the percentile of no values" }
+    val rank = ceil(percentile / 100 * sortedValues.size).toInt().coerceIn(1, sortedValues.size)
+    return sortedValues[rank - 1]
+}
+
+/**
+ * Record the latency of each execution of the stages of a pipeline.
+ *
+ * This class is threadsafe.
+ */
+class LatencyRecorder {
+    private val samples = mutableMapOf<String, MutableList<Long>>()
+
+    /**
+     * Record that an execution of [stage] took [duration].
+     */
+    fun record(stage: String, duration: Duration) = synchronized(samples) {
+        samples.getOrPut(stage) { mutableListOf() }.add(duration.inNanoseconds)
+    }
+
+    /**
+     * Summarize the recorded latencies of each stage.
+     */
+    fun summarize(): Map<String, LatencySummary> = synchronized(samples) {
+        samples.mapValues { (_, stageSamples) ->
+            val sorted = stageSamples.sorted()
+            LatencySummary(
+                samples = sorted.size,
+                p50Ms = percentile(sorted, 50.0).toMilliseconds(),
+                p90Ms = percentile(sorted, 90.0).toMilliseconds(),
+                p99Ms = percentile(sorted, 99.0).toMilliseconds(),
+                maxMs = sorted.last().toMilliseconds()
+            )
+        }
+    }
+
+    private fun Long.toMilliseconds() = this / 1_000_000.0
+}
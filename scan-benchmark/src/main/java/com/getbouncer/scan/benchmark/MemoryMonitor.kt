@@ -0,0 +1,66 @@
+package com.getbouncer.scan.benchmark
+
+import android.os.Debug
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.isActive
+import kotlinx.coroutines.launch
+
+/**
+ * How often to sample the heap size.
+ */
+private const val HEAP_SAMPLE_INTERVAL_MILLIS = 10L
+
+/**
+ * Measure allocations and the peak heap size while a benchmark runs.
+ */
+internal class MemoryMonitor {
+    private var samplingJob: Job? = null
+
+    @Volatile
+    var peakHeapBytes = 0L
+        private set
+
+    var allocations = 0L
+        private set
+
+    var allocatedBytes = 0L
+        private set
+
+    /**
+     * Start counting allocations and sampling the heap in [scope].
+     */
+    @Suppress("DEPRECATION")
+    fun start(scope: CoroutineScope) {
+        Runtime.getRuntime().gc()
+        peakHeapBytes = usedHeapBytes()
+
+        Debug.resetGlobalAllocCount()
+        Debug.resetGlobalAllocSize()
+        Debug.startAllocCounting()
+
+        samplingJob = scope.launch(Dispatchers.Default) {
+            while (isActive) {
+                peakHeapBytes = maxOf(peakHeapBytes, usedHeapBytes())
+                delay(HEAP_SAMPLE_INTERVAL_MILLIS)
+            }
+        }
+    }
+
+    /**
+     * Stop measuring.
+     */
+    @Suppress("DEPRECATION")
+    fun stop() {
+        Debug.stopAllocCounting()
+        allocations = Debug.getGlobalAllocCount().toLong()
+        allocatedBytes = Debug.getGlobalAllocSize().toLong()
+
+        samplingJob?.cancel()
+        peakHeapBytes = maxOf(peakHeapBytes, usedHeapBytes())
+    }
+
+    private fun usedHeapBytes() = Runtime.getRuntime().let { it.totalMemory() - it.freeMemory() }
+}
@@ -0,0 +1,161 @@
+package com.getbouncer.scan.benchmark
+
+import com.getbouncer.scan.framework.Analyzer
+import com.getbouncer.scan.framework.AnalyzerLoopErrorListener
+import com.getbouncer.scan.framework.AnalyzerPool
+import com.getbouncer.scan.framework.BackPressurePolicy
+import com.getbouncer.scan.framework.ProcessBoundAnalyzerLoop
+import com.getbouncer.scan.framework.StatefulResultHandler
+import com.getbouncer.scan.framework.time.Clock
+import com.getbouncer.scan.framework.time.ClockMark
+import com.getbouncer.scan.framework.time.measureTimeWithResult
+import com.getbouncer.scan.framework.util.getDeviceName
+import kotlinx.coroutines.coroutineScope
+import kotlinx.coroutines.flow.Flow
+import kotlinx.coroutines.flow.onEach
+import java.util.concurrent.atomic.AtomicInteger
+
+private const val STAGE_QUEUE = "queue"
+private const val STAGE_ANALYZE = "analyze"
+private const val STAGE_AGGREGATE = "aggregate"
+private const val STAGE_END_TO_END = "end_to_end"
+
+/**
+ * Run a recorded set of frames through a [ProcessBoundAnalyzerLoop] and measure its performance.
+ *
+ * The analyzers in the [analyzerPool] and the [resultHandler] are timed individually, so the report includes latency
+ * percentiles for analysis, aggregation, and, if [capturedAt] is provided, the time frames spend queued and the total
+ * time from capture to aggregation. To benchmark everything except inference, use analyzers with a deterministic
+ * stub in place of the model.
+ *
+ * To analyze every frame, as a [com.getbouncer.scan.framework.FiniteAnalyzerLoop] would, use the default
+ * [BackPressurePolicy.PassThrough] with a source that replays as fast as possible.
+ *
+ * @param name: The name of the benchmark
+ * @param analyzerPool: The analyzers to benchmark
+ * @param resultHandler: The result handler to benchmark, which determines when the run is complete
+ * @param backPressurePolicy: How the loop handles frames that arrive faster than they can be analyzed
+ * @param capturedAt: If specified, a function to get the time at which a frame was captured
+ * @param stateName: A function to name the states of the [resultHandler] in the report
+ * @param tearDown: Release anything held by the [resultHandler] once the run ends, such as canceling a
+ *     [com.getbouncer.scan.framework.ResultAggregator]
+ */
+class PipelineBenchmark<DataFrame, State, Output> @JvmOverloads constructor(
+    private val name: String,
+    private val analyzerPool: AnalyzerPool<DataFrame, State, Output>,
+    private val resultHandler: StatefulResultHandler<DataFrame, State, Output, Boolean>,
+    private val backPressurePolicy: BackPressurePolicy = BackPressurePolicy.PassThrough,
+    private val capturedAt: ((DataFrame) -> ClockMark)? = null,
+    private val stateName: (State) -> String = { it.toString() },
+    private val tearDown: () -> Unit = { }
+) {
+    private val latencies = LatencyRecorder()
+    private val framesDelivered = AtomicInteger(0)
+    private val framesAnalyzed = AtomicInteger(0)
+    private val analyzerFailures = AtomicInteger(0)
+    private val resultFailures = AtomicInteger(0)
+    private val framesToState = mutableMapOf<String, Int>()
+
+    @Volatile
+    private var completed = false
+
+    /**
+     * Run the benchmark over the [frames], labeling the report with [label]. The run ends when the result handler
+     * finishes or the frames run out. A benchmark can only be run once.
+     */
+    @JvmOverloads
+    suspend fun run(frames: Flow<DataFrame>, label: String? = null): BenchmarkReport = coroutineScope {
+        val memoryMonitor = MemoryMonitor()
+        val loop = ProcessBoundAnalyzerLoop(
+            analyzerPool = AnalyzerPool(analyzerPool.desiredAnalyzerCount, analyzerPool.analyzers.map { TimedAnalyzer(it) }),
+            resultHandler = TimedResultHandler(resultHandler),
+            analyzerLoopErrorListener = object : AnalyzerLoopErrorListener {
+                override fun onAnalyzerFailure(t: Throwable): Boolean {
+                    analyzerFailures.incrementAndGet()
+                    return false
+                }
+
+                override fun onResultFailure(t: Throwable): Boolean {
+                    resultFailures.incrementAndGet()
+                    return false
+                }
+            }
+        )
+
+        memoryMonitor.start(this)
+        val startedAt = Clock.markNow()
+
+        try {
+            val job = loop.subscribeTo(frames.onEach { framesDelivered.incrementAndGet() }, this, backPressurePolicy)
+            checkNotNull(job) { "No analyzers are available to benchmark" }
+            job.join()
+        } finally {
+            tearDown()
+        }
+
+        val duration = startedAt.elapsedSince()
+        memoryMonitor.stop()
+
+        val analyzed = framesAnalyzed.get()
+        BenchmarkReport(
+            name = name,
+            label = label,
+            device = getDeviceName(),
+            durationMs = duration.inMilliseconds,
+            framesDelivered = framesDelivered.get(),
+            framesAnalyzed = analyzed,
+            framesPerSecond = analyzed / duration.inSeconds,
+            completed = completed,
+            framesToState = synchronized(framesToState) { framesToState.toMap() },
+            stageLatency = latencies.summarize(),
+            allocationsPerFrame = memoryMonitor.allocations.toDouble() / analyzed.coerceAtLeast(1),
+            allocatedBytesPerFrame = memoryMonitor.allocatedBytes.toDouble() / analyzed.coerceAtLeast(1),
+            peakHeapBytes = memoryMonitor.peakHeapBytes,
+            analyzerFailures = analyzerFailures.get(),
+            resultFailures = resultFailures.get()
+        )
+    }
+
+    private inner class TimedAnalyzer(
+        private val analyzer: Analyzer<DataFrame, State, Output>
+    ) : Analyzer<DataFrame, State, Output> {
+        override suspend fun analyze(data: DataFrame, state: State): Output {
+            capturedAt?.let { latencies.record(STAGE_QUEUE, it(data).elapsedSince()) }
+            val (duration, output) = measureTimeWithResult { analyzer.analyze(data, state) }
+            latencies.record(STAGE_ANALYZE, duration)
+            return output
+        }
+    }
+
+    /**
+     * Time the [delegate] and record the first frame at which it reaches each state. A
+     * [com.getbouncer.scan.framework.ResultAggregator] returns from [onResult] once the result has been posted, so the
+     * aggregate latency is the time analyzers spend handing off results, a state is recorded at the first frame to
+     * observe it, and the run completes on the first frame posted after the final result.
+     */
+    private inner class TimedResultHandler(
+        private val delegate: StatefulResultHandler<DataFrame, State, Output, Boolean>
+    ) : StatefulResultHandler<DataFrame, State, Output, Boolean>(delegate.state) {
+        init {
+            recordState(0)
+        }
+
+        override suspend fun onResult(result: Output, data: DataFrame): Boolean {
+            val (duration, finished) = measureTimeWithResult { delegate.onResult(result, data) }
+            latencies.record(STAGE_AGGREGATE, duration)
+            capturedAt?.let { latencies.record(STAGE_END_TO_END, it(data).elapsedSince()) }
+
+            state = delegate.state
+            recordState(framesAnalyzed.incrementAndGet())
+
+            if (finished) {
+                completed = true
+            }
+            return finished
+        }
+
+        private fun recordState(frames: Int) = synchronized(framesToState) {
+            framesToState.getOrPut(stateName(delegate.state)) { frames }
+        }
+    }
+}
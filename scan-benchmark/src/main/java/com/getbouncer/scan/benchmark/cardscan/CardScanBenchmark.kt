@@ -0,0 +1,100 @@
+package com.getbouncer.scan.benchmark.cardscan
+
+import com.getbouncer.cardscan.ui.analyzer.PaymentCardOcrAnalyzer
+import com.getbouncer.cardscan.ui.result.MainLoopAggregator
+import com.getbouncer.cardscan.ui.result.MainLoopState
+import com.getbouncer.scan.benchmark.PipelineBenchmark
+import com.getbouncer.scan.framework.AggregateResultListener
+import com.getbouncer.scan.framework.Analyzer
+import com.getbouncer.scan.framework.AnalyzerFactory
+import com.getbouncer.scan.framework.AnalyzerPool
+import com.getbouncer.scan.framework.AnalyzerPoolFactory
+import com.getbouncer.scan.framework.BackPressurePolicy
+import com.getbouncer.scan.framework.ml.ReplayInferenceEngine
+import com.getbouncer.scan.framework.time.Duration
+import com.getbouncer.scan.payment.ml.SSDOcr
+import com.getbouncer.scan.payment.scale
+import com.getbouncer.scan.payment.toRGBByteBuffer
+import kotlinx.coroutines.delay
+
+/**
+ * A deterministic stand-in for [PaymentCardOcrAnalyzer]. Frames go through the same image preparation as the SSD OCR
+ * model, but inference is replaced by waiting for [inferenceLatency] and reading the given [pan], so benchmarks of
+ * the rest of the pipeline are repeatable.
+ */
+class StubPaymentCardOcrAnalyzer(
+    private val pan: String?,
+    private val inferenceLatency: Duration
+) : Analyzer<SSDOcr.Input, MainLoopState, PaymentCardOcrAnalyzer.Prediction> {
+
+    override suspend fun analyze(data: SSDOcr.Input, state: MainLoopState): PaymentCardOcrAnalyzer.Prediction {
+        if (state.runOcr) {
+            SSDOcr.cropImage(data).scale(SSDOcr.Factory.TRAINED_IMAGE_SIZE).toRGBByteBuffer()
+            delay(inferenceLatency.inMilliseconds.toLong())
+        }
+        data.derivedImages.clear()
+
+        return PaymentCardOcrAnalyzer.Prediction(
+            pan = if (state.runOcr) pan else null,
+            panDetectionBoxes = null,
+            name = null,
+            expiry = null,
+            objDetectionBoxes = null,
+            isExpiryExtractionAvailable = false,
+            isNameExtractionAvailable = false
+        )
+    }
+
+    class Factory(
+        private val pan: String?,
+        private val inferenceLatency: Duration
+    ) : AnalyzerFactory<StubPaymentCardOcrAnalyzer> {
+        override suspend fun newInstance() = StubPaymentCardOcrAnalyzer(pan, inferenceLatency)
+    }
+}
+
+/**
+ * A factory for [SSDOcr] analyzers that replay [recordings] of the model output, taking [inferenceLatency] for each
+ * inference, instead of running the model. Frames go through the real image preparation and post-processing, so only
+ * the model itself is left out of the benchmark.
+ *
+ * @param recordings: The output of each recorded inference. See [ReplayInferenceEngine].
+ */
+class ReplaySSDOcrFactory(
+    private val recordings: List<Map<Int, Any>>,
+    private val inferenceLatency: Duration
+) : AnalyzerFactory<SSDOcr> {
+    override suspend fun newInstance() = SSDOcr(ReplayInferenceEngine(recordings, inferenceLatency))
+}
+
+/**
+ * Create a benchmark of the card scan main loop, aggregating results from the [analyzerFactory] with a
+ * [MainLoopAggregator] in the same way as [com.getbouncer.cardscan.ui.CardScanFlow].
+ */
+@JvmOverloads
+suspend fun <AnalyzerType : Analyzer<SSDOcr.Input, MainLoopState, PaymentCardOcrAnalyzer.Prediction>> cardScanBenchmark(
+    name: String,
+    analyzerFactory: AnalyzerFactory<AnalyzerType>,
+    backPressurePolicy: BackPressurePolicy = BackPressurePolicy.ConflateLatest
+): PipelineBenchmark<SSDOcr.Input, MainLoopState, PaymentCardOcrAnalyzer.Prediction> {
+    val analyzerPool: AnalyzerPool<SSDOcr.Input, MainLoopState, PaymentCardOcrAnalyzer.Prediction> =
+        AnalyzerPoolFactory(analyzerFactory).buildAnalyzerPool()
+    val aggregator = MainLoopAggregator(
+        listener = object : AggregateResultListener<MainLoopAggregator.InterimResult, MainLoopAggregator.FinalResult> {
+            override suspend fun onResult(result: MainLoopAggregator.FinalResult) { }
+            override suspend fun onInterimResult(result: MainLoopAggregator.InterimResult) { }
+            override suspend fun onReset() { }
+        }
+    )
+
+    return PipelineBenchmark(
+        name = name,
+        analyzerPool = analyzerPool,
+        resultHandler = aggregator,
+        backPressurePolicy = backPressurePolicy,
+        capturedAt = { it.capturedAt },
+        stateName = { it::class.java.simpleName },
+        // stop the aggregator's coroutines once the run ends
+        tearDown = { aggregator.cancel() }
+    )
+}
@@ -0,0 +1,37 @@
+package com.getbouncer.scan.benchmark
+
+import androidx.test.filters.SmallTest
+import com.getbouncer.scan.framework.time.milliseconds
+import org.junit.Test
+import kotlin.test.assertEquals
+
+class LatencyRecorderTest {
+
+    @Test
+    @SmallTest
+    fun percentile_usesNearestRank() {
+        val values = (1L..10L).toList()
+        assertEquals(5L, percentile(values, 50.0))
+        assertEquals(9L, percentile(values, 90.0))
+        assertEquals(10L, percentile(values, 99.0))
+        assertEquals(1L, percentile(values, 0.0))
+    }
+
+    @Test
+    @SmallTest
+    fun summarize_reportsEachStage() {
+        val recorder = LatencyRecorder()
+        (1..100).forEach { recorder.record("analyze", it.milliseconds) }
+        recorder.record("aggregate", 2.milliseconds)
+
+        val summary = recorder.summarize()
+        assertEquals(setOf("analyze", "aggregate"), summary.keys)
+
+        val analyze = summary.getValue("analyze")
+        assertEquals(100, analyze.samples)
+        assertEquals(50.0, analyze.p50Ms)
+        assertEquals(90.0, analyze.p90Ms)
+        assertEquals(99.0, analyze.p99Ms)
+        assertEquals(100.0, analyze.maxMs)
+    }
+}
@@ -0,0 +1,80 @@
+package com.getbouncer.scan.framework.source
+
+import android.graphics.Rect
+import android.util.Size
+import androidx.test.filters.SmallTest
+import com.getbouncer.scan.framework.time.Clock
+import org.junit.Test
+import java.io.File
+import java.io.IOException
+import java.nio.ByteBuffer
+import kotlin.test.assertEquals
+import kotlin.test.assertFailsWith
+import kotlin.test.assertTrue
+
+class FrameCaptureTest {
+
+    private fun pixels(size: Int, seed: Int) = ByteBuffer.wrap(ByteArray(size) { (it * seed).toByte() })
+
+    @Test
+    @SmallTest
+    fun recorder_roundTripsFrames() {
+        val file = File.createTempFile("capture", ".bin")
+        try {
+            FrameCaptureRecorder(file, mappedRegionBytes = 64).use { recorder ->
+                recorder.record(pixels(16, 3), RawFrameFormat.RGBA_8888, 2, 2, Size(4, 6), Rect(0, 1, 2, 3))
+                recorder.record(pixels(6, 5), RawFrameFormat.NV21, 2, 2, Size(8, 10), Rect(1, 2, 3, 4), Clock.markNow())
+                assertEquals(2, recorder.framesRecorded)
+            }
+
+            FrameCaptureReader(file).use { reader ->
+                val frames = reader.frames().toList()
+                assertEquals(2, frames.size)
+
+                val first = frames[0]
+                assertEquals(RawFrameFormat.RGBA_8888, first.format)
+                assertEquals(2, first.width)
+                assertEquals(2, first.height)
+                assertEquals(Size(4, 6), first.previewSize)
+                assertEquals(Rect(0, 1, 2, 3), first.cardFinder)
+                assertEquals(pixels(16, 3), first.pixels)
+
+                val second = frames[1]
+                assertEquals(RawFrameFormat.NV21, second.format)
+                assertEquals(Rect(1, 2, 3, 4), second.cardFinder)
+                assertEquals(pixels(6, 5), second.pixels)
+                assertTrue(second.capturedAt >= first.capturedAt)
+            }
+        } finally {
+            file.delete()
+        }
+    }
+
+    @Test
+    @SmallTest
+    fun reader_ignoresUnfinishedFrames() {
+        val file = File.createTempFile("capture", ".bin")
+        val recorder = FrameCaptureRecorder(file)
+        try {
+            recorder.record(pixels(16, 3), RawFrameFormat.RGBA_8888, 2, 2, Size(4, 6), Rect(0, 1, 2, 3))
+
+            // the recorder has not been closed, so the rest of the mapped region is empty
+            FrameCaptureReader(file).use { reader -> assertEquals(1, reader.frames().count()) }
+        } finally {
+            recorder.close()
+            file.delete()
+        }
+    }
+
+    @Test
+    @SmallTest
+    fun reader_rejectsOtherFiles() {
+        val file = File.createTempFile("capture", ".bin")
+        try {
+            file.writeText("not a capture file")
+            assertFailsWith<IOException> { FrameCaptureReader(file) }
+        } finally {
+            file.delete()
+        }
+    }
+}
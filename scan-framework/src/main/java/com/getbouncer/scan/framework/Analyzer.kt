@@ -31,13 +31,24 @@ data class AnalyzerPool<DataFrame, State, Output>(
 
 /**
  * A pool of analyzers.
+ *
+ * If [pipelineDepth] is greater than one, each analyzer instance is shared by [pipelineDepth] workers in an
+ * [AnalyzerLoop], so one worker can prepare the next frame or interpret the previous one while another worker runs
+ * inference on the same instance. Only use this with analyzers that are safe to call concurrently, such as
+ * [com.getbouncer.scan.framework.ml.TensorFlowLiteAnalyzer], which queues inference on its interpreter.
  */
 class AnalyzerPoolFactory<DataFrame, State, Output> @JvmOverloads constructor(
     private val analyzerFactory: AnalyzerFactory<out Analyzer<DataFrame, State, Output>>,
-    private val desiredAnalyzerCount: Int = DEFAULT_ANALYZER_PARALLEL_COUNT
+    private val desiredAnalyzerCount: Int = DEFAULT_ANALYZER_PARALLEL_COUNT,
+    private val pipelineDepth: Int = 1
 ) {
-    suspend fun buildAnalyzerPool() = AnalyzerPool(
-        desiredAnalyzerCount = desiredAnalyzerCount,
-        analyzers = (0 until desiredAnalyzerCount).mapNotNull { analyzerFactory.newInstance() }
-    )
+    suspend fun buildAnalyzerPool(): AnalyzerPool<DataFrame, State, Output> {
+        val instances = (0 until desiredAnalyzerCount).mapNotNull { analyzerFactory.newInstance() }
+
+        // interleave the shared instances so that the first workers in the pool use distinct analyzers
+        return AnalyzerPool(
+            desiredAnalyzerCount = desiredAnalyzerCount,
+            analyzers = (0 until pipelineDepth.coerceAtLeast(1)).flatMap { instances }
+        )
+    }
 }
@@ -0,0 +1,134 @@
+package com.getbouncer.scan.framework
+
+import com.getbouncer.scan.framework.time.Clock
+import com.getbouncer.scan.framework.time.ClockMark
+import com.getbouncer.scan.framework.time.Duration
+import com.getbouncer.scan.framework.time.seconds
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.channels.Channel
+import kotlinx.coroutines.flow.Flow
+import kotlinx.coroutines.flow.collect
+import kotlinx.coroutines.flow.receiveAsFlow
+import kotlinx.coroutines.launch
+
+private const val FRAME_ACCEPTED = "accepted"
+private const val FRAME_DROPPED = "dropped"
+
+/**
+ * A policy for handling frames that arrive faster than the analyzers in an [AnalyzerLoop] can process them.
+ *
+ * With the exception of [PassThrough], the flow returned by a policy is shared between all of its collectors, so each
+ * frame is analyzed at most once. Each policy records how many frames it accepted and dropped to [Stats] under the
+ * `back_pressure:<policy>` repeating task.
+ */
+sealed class BackPressurePolicy(private val name: String) {
+
+    /**
+     * Apply this policy to a [flow]. Any coroutines required by the policy are launched in [scope], and will stop when
+     * [scope] is canceled.
+     */
+    abstract fun <T> applyTo(flow: Flow<T>, scope: CoroutineScope): Flow<T>
+
+    /**
+     * Deliver frames exactly as the [flow] emits them. Back pressure is left to the producer of the flow.
+     */
+    object PassThrough : BackPressurePolicy("pass_through") {
+        override fun <T> applyTo(flow: Flow<T>, scope: CoroutineScope): Flow<T> = flow
+    }
+
+    /**
+     * Keep only the newest frame. When an analyzer becomes available, it always receives the most recent frame.
+     */
+    object ConflateLatest : BackPressurePolicy("conflate_latest") {
+        override fun <T> applyTo(flow: Flow<T>, scope: CoroutineScope): Flow<T> =
+            scope.share(flow, Channel(capacity = 1)) { channel, frame -> channel.offerDroppingOldest(frame) }
+    }
+
+    /**
+     * Keep the newest [capacity] frames. When a new frame arrives and the buffer is full, the oldest frame is dropped.
+     */
+    class DropOldest(private val capacity: Int) : BackPressurePolicy("drop_oldest") {
+        init {
+            require(capacity > 0) { "Capacity must be greater than zero" }
+        }
+
+        override fun <T> applyTo(flow: Flow<T>, scope: CoroutineScope): Flow<T> =
+            scope.share(flow, Channel(capacity)) { channel, frame -> channel.offerDroppingOldest(frame) }
+    }
+
+    /**
+     * Only analyze every [n]th frame, dropping the rest. Of the sampled frames, only the newest is kept.
+     */
+    class SampleEveryNth(private val n: Int) : BackPressurePolicy("sample_every_nth") {
+        init {
+            require(n > 0) { "Sample rate must be greater than zero" }
+        }
+
+        override fun <T> applyTo(flow: Flow<T>, scope: CoroutineScope): Flow<T> {
+            var frameIndex = 0
+            return scope.share(flow, Channel(capacity = 1)) { channel, frame ->
+                val sampled = frameIndex == 0
+                frameIndex = (frameIndex + 1) % n
+                !sampled || channel.offerDroppingOldest(frame)
+            }
+        }
+    }
+
+    /**
+     * Analyze frames at no more than [targetFramesPerSecond], dropping frames that arrive too soon after the previously
+     * accepted frame. Of the accepted frames, only the newest is kept.
+     */
+    class Throttle(targetFramesPerSecond: Double) : BackPressurePolicy("throttle") {
+        init {
+            require(targetFramesPerSecond > 0) { "Target frame rate must be greater than zero" }
+        }
+
+        private val minimumFrameInterval: Duration = 1.seconds / targetFramesPerSecond
+
+        override fun <T> applyTo(flow: Flow<T>, scope: CoroutineScope): Flow<T> {
+            var lastAcceptedAt: ClockMark? = null
+            return scope.share(flow, Channel(capacity = 1)) { channel, frame ->
+                val lastAccepted = lastAcceptedAt
+                if (lastAccepted != null && lastAccepted.elapsedSince() < minimumFrameInterval) {
+                    true
+                } else {
+                    lastAcceptedAt = Clock.markNow()
+                    channel.offerDroppingOldest(frame)
+                }
+            }
+        }
+    }
+
+    /**
+     * Collect the [flow] in a single coroutine, passing each frame to [offer]. [offer] returns true if a frame was
+     * dropped. The returned flow is shared between all of its collectors.
+     */
+    protected fun <T> CoroutineScope.share(
+        flow: Flow<T>,
+        channel: Channel<T>,
+        offer: (Channel<T>, T) -> Boolean
+    ): Flow<T> {
+        launch {
+            flow.collect {
+                val dropped = offer(channel, it)
+                Stats.trackRepeatingTask("back_pressure:$name").trackResult(if (dropped) FRAME_DROPPED else FRAME_ACCEPTED)
+            }
+        }.invokeOnCompletion { channel.close() }
+
+        return channel.receiveAsFlow()
+    }
+
+    /**
+     * Offer a [frame] to this channel. If the channel is full, drop the oldest frames until there is room. Returns true
+     * if a frame was dropped.
+     */
+    protected fun <T> Channel<T>.offerDroppingOldest(frame: T): Boolean {
+        var dropped = false
+        while (!offer(frame)) {
+            if (poll() != null) {
+                dropped = true
+            }
+        }
+        return dropped
+    }
+}
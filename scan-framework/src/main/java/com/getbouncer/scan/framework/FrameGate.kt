@@ -0,0 +1,62 @@
+package com.getbouncer.scan.framework
+
+/**
+ * A cheap check that runs on each frame before it is handed to an analyzer. Frames that the gate rejects are skipped
+ * without running inference, so gates should be significantly faster than the analyzers they protect.
+ *
+ * Gates may be called from multiple workers concurrently, and must be threadsafe.
+ */
+interface FrameGate<DataFrame, State> {
+
+    /**
+     * The name of this gate for stat tracking.
+     */
+    val name: String
+        get() = this::class.java.simpleName
+
+    /**
+     * Determine if the [frame] is worth analyzing given the current [state] of the loop.
+     */
+    suspend fun shouldAnalyze(frame: DataFrame, state: State): Boolean
+}
+
+/**
+ * A [FrameGate] made of several [stages] that run in order. A frame is analyzed only if it passes every stage, and
+ * later stages are not run once a stage rejects the frame, so cheaper and more selective stages should come first.
+ *
+ * The number of frames each stage passes and rejects is recorded to [Stats] under the `frame_gate_stage:<stage>`
+ * repeating task.
+ */
+class FrameGateCascade<DataFrame, State>(
+    private vararg val stages: FrameGate<DataFrame, State>
+) : FrameGate<DataFrame, State> {
+
+    override suspend fun shouldAnalyze(frame: DataFrame, state: State): Boolean {
+        for (stage in stages) {
+            val analyze = stage.shouldAnalyze(frame, state)
+            Stats.trackRepeatingTask("frame_gate_stage:${stage.name}")
+                .trackResult(if (analyze) "frame_passed" else "frame_rejected")
+
+            if (!analyze) {
+                return false
+            }
+        }
+        return true
+    }
+}
+
+/**
+ * A [FrameGate] that only applies a [gate] while the loop is in a state that matches [appliesTo]. In all other
+ * states, frames pass.
+ */
+class StateFilteredFrameGate<DataFrame, State>(
+    private val gate: FrameGate<DataFrame, State>,
+    private val appliesTo: (State) -> Boolean
+) : FrameGate<DataFrame, State> {
+
+    override val name: String
+        get() = gate.name
+
+    override suspend fun shouldAnalyze(frame: DataFrame, state: State): Boolean =
+        !appliesTo(state) || gate.shouldAnalyze(frame, state)
+}
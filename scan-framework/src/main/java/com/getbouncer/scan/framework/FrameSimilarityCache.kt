@@ -0,0 +1,115 @@
+package com.getbouncer.scan.framework
+
+import com.getbouncer.scan.framework.time.Clock
+import com.getbouncer.scan.framework.time.ClockMark
+import com.getbouncer.scan.framework.time.Duration
+import com.getbouncer.scan.framework.time.milliseconds
+
+/**
+ * The maximum number of bits by which two fingerprints can differ for their frames to be considered similar.
+ */
+private const val DEFAULT_MAXIMUM_DISTANCE = 4
+
+/**
+ * The number of recently analyzed frames to remember.
+ */
+private const val DEFAULT_CAPACITY = 4
+
+private val DEFAULT_MAXIMUM_AGE = 250.milliseconds
+
+/**
+ * Count the number of bits that differ between two fingerprints.
+ */
+fun hammingDistance(first: Long, second: Long): Int = java.lang.Long.bitCount(first xor second)
+
+/**
+ * What to do with a frame that is similar to a recently analyzed frame.
+ */
+enum class SimilarFramePolicy {
+
+    /**
+     * Hand the result of the similar frame to the result handler again without running the analyzer. The repeated
+     * result counts as another agreeing result.
+     */
+    REUSE_RESULT,
+
+    /**
+     * Skip the frame entirely. It does not count towards any result.
+     */
+    SKIP_FRAME
+}
+
+/**
+ * A cache of results from recently analyzed frames, used by an [AnalyzerLoop] to avoid re-running inference on frames
+ * that are nearly identical to ones already analyzed, such as when the subject is held still.
+ *
+ * Frames are compared using a perceptual [fingerprint], such as a difference hash of a downscaled image, so that
+ * similar frames have fingerprints that differ in only a few bits. A cached result only matches frames analyzed in the
+ * same loop state, and expires after [maximumAge] so that a still scene is periodically re-analyzed. In loop states that
+ * do not match [appliesTo], the cache is bypassed and frames are not fingerprinted at all.
+ *
+ * This class is threadsafe.
+ *
+ * @param fingerprint: Calculate a perceptual fingerprint for a frame
+ * @param policy: What to do with frames that match a cached result
+ * @param maximumDistance: The maximum number of differing fingerprint bits for two frames to match
+ * @param maximumAge: How long a result can be reused after its frame was analyzed
+ * @param capacity: The number of recently analyzed frames to remember
+ * @param appliesTo: Whether the cache is used while the loop is in a given state
+ */
+class FrameSimilarityCache<DataFrame, State, Output> @JvmOverloads constructor(
+    private val fingerprint: (DataFrame) -> Long,
+    val policy: SimilarFramePolicy = SimilarFramePolicy.REUSE_RESULT,
+    private val maximumDistance: Int = DEFAULT_MAXIMUM_DISTANCE,
+    private val maximumAge: Duration = DEFAULT_MAXIMUM_AGE,
+    private val capacity: Int = DEFAULT_CAPACITY,
+    val appliesTo: (State) -> Boolean = { true }
+) {
+    private class Entry<State, Output>(
+        val fingerprint: Long,
+        val state: State,
+        val output: Output,
+        val analyzedAt: ClockMark
+    )
+
+    /**
+     * A cached result that matched a frame.
+     */
+    class Match<Output>(val output: Output)
+
+    private val entries = ArrayDeque<Entry<State, Output>>(capacity)
+
+    /**
+     * Calculate the fingerprint of a [frame].
+     */
+    fun fingerprintOf(frame: DataFrame): Long = fingerprint(frame)
+
+    /**
+     * Find a cached result for a frame with the given [fingerprint] that was analyzed in the same [state], or null if
+     * no recent frame is similar.
+     */
+    fun findSimilar(fingerprint: Long, state: State): Match<Output>? = synchronized(entries) {
+        entries.removeAll { it.analyzedAt.elapsedSince() > maximumAge }
+        entries
+            .filter { it.state == state }
+            .map { it to hammingDistance(it.fingerprint, fingerprint) }
+            .filter { it.second <= maximumDistance }
+            .minByOrNull { it.second }
+            ?.let { Match(it.first.output) }
+    }
+
+    /**
+     * Cache the [output] of analyzing a frame with the given [fingerprint] in the given [state].
+     */
+    fun put(fingerprint: Long, state: State, output: Output) = synchronized(entries) {
+        if (entries.size >= capacity) {
+            entries.removeFirst()
+        }
+        entries.addLast(Entry(fingerprint, state, output, Clock.markNow()))
+    }
+
+    /**
+     * Forget all cached results.
+     */
+    fun clear() = synchronized(entries) { entries.clear() }
+}
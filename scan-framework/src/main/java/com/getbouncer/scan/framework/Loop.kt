@@ -4,21 +4,28 @@ import com.getbouncer.scan.framework.time.Clock
 import com.getbouncer.scan.framework.time.ClockMark
 import com.getbouncer.scan.framework.time.Duration
 import com.getbouncer.scan.framework.time.measureTime
+import com.getbouncer.scan.framework.util.ReorderBuffer
+import kotlinx.coroutines.CancellationException
 import kotlinx.coroutines.CoroutineScope
 import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.ExperimentalCoroutinesApi
 import kotlinx.coroutines.Job
+import kotlinx.coroutines.cancel
 import kotlinx.coroutines.channels.Channel
+import kotlinx.coroutines.coroutineScope
 import kotlinx.coroutines.flow.Flow
 import kotlinx.coroutines.flow.buffer
 import kotlinx.coroutines.flow.channelFlow
 import kotlinx.coroutines.flow.collect
 import kotlinx.coroutines.flow.receiveAsFlow
+import kotlinx.coroutines.flow.takeWhile
+import kotlinx.coroutines.isActive
 import kotlinx.coroutines.launch
 import kotlinx.coroutines.runBlocking
 import kotlinx.coroutines.sync.Mutex
 import kotlinx.coroutines.sync.withLock
 import kotlinx.coroutines.withContext
+import kotlinx.coroutines.withTimeoutOrNull
 import kotlinx.coroutines.yield
 import java.util.concurrent.atomic.AtomicBoolean
 import java.util.concurrent.atomic.AtomicInteger
@@ -50,14 +57,20 @@ interface AnalyzerLoopErrorListener {
  *
  * This will process data until the result aggregator returns true.
  *
+ * Analyzers run on the bounded [ScanDispatchers.inference] dispatcher rather than the shared default dispatcher.
+ *
  * Note: an analyzer loop can only be started once. Once it terminates, it cannot be restarted.
  *
  * @param analyzerPool: A pool of analyzers to use in this loop.
  * @param analyzerLoopErrorListener: An error handler for this loop
+ * @param workerController: If specified, a controller that tunes how many of the analyzers are active
+ * @param similarityCache: If specified, a cache of recent results used in place of analyzing similar frames
  */
 sealed class AnalyzerLoop<DataFrame, State, Output>(
     private val analyzerPool: AnalyzerPool<DataFrame, State, Output>,
-    private val analyzerLoopErrorListener: AnalyzerLoopErrorListener
+    private val analyzerLoopErrorListener: AnalyzerLoopErrorListener,
+    private val workerController: AdaptiveWorkerController? = null,
+    private val similarityCache: FrameSimilarityCache<DataFrame, State, Output>? = null
 ) : ResultHandler<DataFrame, Output, Boolean> {
     private val started = AtomicBoolean(false)
     protected var startedAt: ClockMark? = null
@@ -69,11 +82,17 @@ sealed class AnalyzerLoop<DataFrame, State, Output>(
 
     private var workerJob: Job? = null
 
-    protected fun subscribeToFlow(flow: Flow<DataFrame>, processingCoroutineScope: CoroutineScope): Job? {
-        if (!started.getAndSet(true)) {
-            startedAt = Clock.markNow()
-        } else {
-            analyzerLoopErrorListener.onAnalyzerFailure(AlreadySubscribedException)
+    /**
+     * Frames taken from the flow by workers that were deactivated before analyzing them, waiting for an active worker.
+     */
+    private val forwardedFrames = Channel<DataFrame>(Channel.UNLIMITED)
+
+    protected fun subscribeToFlow(
+        flow: Flow<DataFrame>,
+        processingCoroutineScope: CoroutineScope,
+        backPressurePolicy: BackPressurePolicy = BackPressurePolicy.PassThrough
+    ): Job? {
+        if (!markStarted()) {
             return null
         }
 
@@ -85,10 +104,13 @@ sealed class AnalyzerLoop<DataFrame, State, Output>(
             return null
         }
 
+        workerController?.start(analyzerPool.analyzers.size)
+
         workerJob = processingCoroutineScope.launch {
+            val workerFlow = backPressurePolicy.applyTo(flow, this)
             analyzerPool.analyzers.forEachIndexed { index, analyzer ->
-                launch(Dispatchers.Default) {
-                    startWorker(flow, index, analyzer)
+                launch(ScanDispatchers.inference) {
+                    startWorker(workerFlow, index, analyzer)
                 }
             }
         }
@@ -96,6 +118,18 @@ sealed class AnalyzerLoop<DataFrame, State, Output>(
         return workerJob
     }
 
+    /**
+     * Mark this loop as started. If the loop was already started, notify the error listener and return false.
+     */
+    protected fun markStarted(): Boolean =
+        if (!started.getAndSet(true)) {
+            startedAt = Clock.markNow()
+            true
+        } else {
+            analyzerLoopErrorListener.onAnalyzerFailure(AlreadySubscribedException)
+            false
+        }
+
     protected suspend fun unsubscribeFromFlow() = cancelMutex.withLock {
         workerJob?.apply { if (isActive) { cancel() } }
         started.set(false)
@@ -103,38 +137,106 @@ sealed class AnalyzerLoop<DataFrame, State, Output>(
     }
 
     /**
-     * Launch a worker coroutine that has access to the analyzer's `analyze` method and the result handler
+     * Determine if a [frame] should be skipped instead of analyzed.
+     */
+    protected open suspend fun shouldSkipFrame(frame: DataFrame): Boolean = false
+
+    /**
+     * Launch a worker coroutine that has access to the analyzer's `analyze` method and the result handler. If a
+     * [workerController] is present, the worker only reads from the flow while the controller allows it to be active.
      */
     private suspend fun startWorker(
         flow: Flow<DataFrame>,
         workerId: Int,
         analyzer: Analyzer<DataFrame, State, Output>
     ) {
-        flow.collect { frame ->
-            yield() // allow for this to be canceled
-            val stat = Stats.trackRepeatingTask("analyzer_execution:${analyzer::class.java.simpleName}")
-            measureTime {
-                try {
-                    val analyzerResult = analyzer.analyze(frame, getState())
-
-                    try {
-                        finished = onResult(analyzerResult, frame)
-                    } catch (t: Throwable) {
-                        stat.trackResult("result_failure")
-                        handleResultFailure(t)
+        val controller = workerController
+        if (controller == null) {
+            flow.collect { frame -> analyzeFrame(frame, workerId, analyzer) }
+            return
+        }
+
+        var deactivated: Boolean
+        do {
+            controller.awaitWorkerActive(workerId)
+            deactivated = false
+            // check that the worker is still active before analyzing each frame so that a parked worker does not run
+            // one more inference. The frame it already took is handed on to an active worker instead of being dropped.
+            flow
+                .takeWhile { frame ->
+                    controller.isWorkerActive(workerId).also { active ->
+                        deactivated = !active
+                        if (!active) forwardedFrames.offer(frame)
                     }
-                } catch (t: Throwable) {
-                    stat.trackResult("analyzer_failure")
-                    handleAnalyzerFailure(t)
                 }
+                .collect { frame ->
+                    analyzeFrame(frame, workerId, analyzer)
+                    forwardedFrames.poll()?.let { analyzeFrame(it, workerId, analyzer) }
+                }
+        } while (deactivated)
+    }
+
+    private suspend fun analyzeFrame(frame: DataFrame, workerId: Int, analyzer: Analyzer<DataFrame, State, Output>) {
+        yield() // allow for this to be canceled
+        if (shouldSkipFrame(frame)) {
+            return
+        }
+
+        val state = getState()
+        val cache = similarityCache?.takeIf { it.appliesTo(state) }
+        val fingerprint = cache?.fingerprintOf(frame)
+        val match = fingerprint?.let { cache?.findSimilar(it, state) }
+        if (match != null) {
+            // cache hits are tracked separately so that they do not skew the analyzer execution times
+            val stat = Stats.trackRepeatingTask("similarity_cache")
+            if (cache?.policy == SimilarFramePolicy.SKIP_FRAME) {
+                stat.trackResult("skipped_frame")
+                return
             }
 
-            if (finished) {
-                loopExecutionStatTracker.trackResult("success:$workerId")
-                unsubscribeFromFlow()
+            deliverResult(match.output, frame, stat)
+            stopIfFinished(workerId)
+            stat.trackResult("reused_result")
+            return
+        }
+
+        val stat = Stats.trackRepeatingTask("analyzer_execution:${analyzer::class.java.simpleName}")
+        val duration = measureTime {
+            try {
+                val analyzerResult = analyzer.analyze(frame, state).also {
+                    if (fingerprint != null) cache?.put(fingerprint, state, it)
+                }
+                deliverResult(analyzerResult, frame, stat)
+            } catch (e: CancellationException) {
+                // the loop finished while this frame was being analyzed, so its result is no longer needed
+                throw e
+            } catch (t: Throwable) {
+                stat.trackResult("analyzer_failure")
+                handleAnalyzerFailure(t)
             }
+        }
+
+        stopIfFinished(workerId)
 
-            stat.trackResult("success")
+        stat.trackResult("success")
+        workerController?.trackFrameProcessed(duration)
+    }
+
+    private suspend fun deliverResult(result: Output, frame: DataFrame, stat: StatTracker) {
+        try {
+            finished = onResult(result, frame)
+        } catch (e: CancellationException) {
+            throw e
+        } catch (t: Throwable) {
+            stat.trackResult("result_failure")
+            handleResultFailure(t)
+        }
+    }
+
+    private suspend fun stopIfFinished(workerId: Int) {
+        if (finished) {
+            loopExecutionStatTracker.trackResult("success:$workerId")
+            unsubscribeFromFlow()
         }
     }
 
@@ -159,24 +261,45 @@ sealed class AnalyzerLoop<DataFrame, State, Output>(
  * If the enqueued data exceeds the allowed memory size, the bottom of the data stack will be dropped and will not be
  * processed. This alleviates memory pressure when producers are faster than the consuming analyzer.
  *
+ * If a [frameDeadline] is provided, frames that are older than the deadline by the time an analyzer is available are
+ * dropped. This works best with the [BackPressurePolicy.ConflateLatest] policy, which always hands the newest frame to
+ * the next available analyzer.
+ *
+ * If a [frameGate] is provided, frames that it rejects are skipped without being analyzed.
+ *
  * @param analyzerPool: A pool of analyzers to use in this loop.
  * @param resultHandler: A result handler that will be called with the results from the analyzers in this loop.
  * @param name: The name of this loop for stat and event tracking.
  * @param analyzerLoopErrorListener: An error handler for this loop
+ * @param frameDeadline: If specified, the maximum age of a frame that will be analyzed
+ * @param workerController: If specified, a controller that tunes how many of the analyzers are active
+ * @param frameGate: If specified, a check that frames must pass before they are analyzed
+ * @param similarityCache: If specified, a cache of recent results used in place of analyzing similar frames
  */
 class ProcessBoundAnalyzerLoop<DataFrame, State, Output>(
     private val analyzerPool: AnalyzerPool<DataFrame, State, Output>,
     private val resultHandler: StatefulResultHandler<DataFrame, State, Output, Boolean>,
-    analyzerLoopErrorListener: AnalyzerLoopErrorListener
+    analyzerLoopErrorListener: AnalyzerLoopErrorListener,
+    private val frameDeadline: FrameDeadline<DataFrame>? = null,
+    workerController: AdaptiveWorkerController? = null,
+    private val frameGate: FrameGate<DataFrame, State>? = null,
+    similarityCache: FrameSimilarityCache<DataFrame, State, Output>? = null
 ) : AnalyzerLoop<DataFrame, State, Output>(
     analyzerPool,
-    analyzerLoopErrorListener
+    analyzerLoopErrorListener,
+    workerController,
+    similarityCache
 ) {
     /**
-     * Subscribe to a flow. Loops can only subscribe to a single flow at a time.
+     * Subscribe to a flow. Loops can only subscribe to a single flow at a time. The [backPressurePolicy] determines
+     * which frames are analyzed when frames arrive faster than the analyzers can process them.
      */
-    fun subscribeTo(flow: Flow<DataFrame>, processingCoroutineScope: CoroutineScope) =
-        subscribeToFlow(flow, processingCoroutineScope)
+    @JvmOverloads
+    fun subscribeTo(
+        flow: Flow<DataFrame>,
+        processingCoroutineScope: CoroutineScope,
+        backPressurePolicy: BackPressurePolicy = BackPressurePolicy.PassThrough
+    ) = subscribeToFlow(flow, processingCoroutineScope, backPressurePolicy)
 
     /**
      * Unsubscribe from the flow.
@@ -186,6 +309,50 @@ class ProcessBoundAnalyzerLoop<DataFrame, State, Output>(
     override suspend fun onResult(result: Output, data: DataFrame) = resultHandler.onResult(result, data)
 
     override fun getState(): State = resultHandler.state
+
+    override suspend fun shouldSkipFrame(frame: DataFrame): Boolean {
+        if (frameDeadline?.isExpired(frame) == true) {
+            Stats.trackRepeatingTask("frame_deadline").trackResult("stale_frame_dropped")
+            return true
+        }
+
+        val gate = frameGate ?: return false
+        val analyze = gate.shouldAnalyze(frame, getState())
+        Stats.trackRepeatingTask("frame_gate:${gate.name}")
+            .trackResult(if (analyze) "frame_passed" else "frame_skipped")
+        return !analyze
+    }
+}
+
+/**
+ * A deadline for analyzing frames. Frames captured more than [maximumFrameAge] ago are considered stale and will not
+ * be analyzed.
+ *
+ * @param maximumFrameAge: The maximum age of a frame that can be analyzed
+ * @param capturedAt: A function to get the time at which a frame was captured
+ */
+class FrameDeadline<DataFrame>(
+    private val maximumFrameAge: Duration,
+    private val capturedAt: (DataFrame) -> ClockMark
+) {
+    fun isExpired(frame: DataFrame): Boolean = capturedAt(frame).elapsedSince() > maximumFrameAge
+}
+
+/**
+ * The order in which a [FiniteAnalyzerLoop] delivers results to its result handler.
+ */
+enum class ResultOrder {
+
+    /**
+     * Deliver each result as soon as its frame has been analyzed. Results may be delivered concurrently.
+     */
+    COMPLETION,
+
+    /**
+     * Deliver results one at a time in the order the frames were provided. Results that complete early are held until
+     * the results of all earlier frames have been delivered.
+     */
+    INPUT
 }
 
 /**
@@ -200,9 +367,9 @@ class ProcessBoundAnalyzerLoop<DataFrame, State, Output>(
  *     exceeds this duration, the loop will terminate
  */
 class FiniteAnalyzerLoop<DataFrame, State, Output>(
-    analyzerPool: AnalyzerPool<DataFrame, State, Output>,
+    private val analyzerPool: AnalyzerPool<DataFrame, State, Output>,
     private val resultHandler: TerminatingResultHandler<DataFrame, State, Output>,
-    analyzerLoopErrorListener: AnalyzerLoopErrorListener,
+    private val analyzerLoopErrorListener: AnalyzerLoopErrorListener,
     private val timeLimit: Duration = Duration.INFINITE
 ) : AnalyzerLoop<DataFrame, State, Output>(
     analyzerPool,
@@ -221,6 +388,128 @@ class FiniteAnalyzerLoop<DataFrame, State, Output>(
         }
     }
 
+    /**
+     * Process [frames] as a batch. The frames are split across all the analyzers in the pool, each of which takes the
+     * next unprocessed frame as soon as it finishes its last one, and the returned job completes once every frame has
+     * been processed.
+     *
+     * Unlike [process], the [timeLimit] is enforced by a timer. Once it expires, outstanding analysis is canceled and
+     * the result handler is notified that processing terminated early, even if no result has arrived since.
+     *
+     * @param resultOrder: The order in which results are delivered to the result handler
+     */
+    @JvmOverloads
+    fun processBatch(
+        frames: List<DataFrame>,
+        processingCoroutineScope: CoroutineScope,
+        resultOrder: ResultOrder = ResultOrder.COMPLETION
+    ): Job? {
+        if (!markStarted()) {
+            return null
+        }
+
+        if (analyzerPool.analyzers.isEmpty()) {
+            analyzerLoopErrorListener.onAnalyzerFailure(NoAnalyzersAvailableException)
+            return null
+        }
+
+        return processingCoroutineScope.launch {
+            val executionStat = Stats.trackTask("${this@FiniteAnalyzerLoop::class.java.simpleName}_batch_execution")
+            val terminated = AtomicBoolean(false)
+            val completed = try {
+                withTimeoutOrNull(timeLimit.inMilliseconds.toLong()) {
+                    coroutineScope { processFrames(frames, resultOrder, this, terminated) }
+                } != null
+            } catch (e: CancellationException) {
+                // only the error listener terminating the batch is handled here, not this job being canceled
+                if (!terminated.get() || !isActive) throw e
+                false
+            }
+
+            when {
+                terminated.get() -> {
+                    executionStat.trackResult("terminated")
+                    resultHandler.onTerminatedEarly()
+                }
+                completed -> {
+                    executionStat.trackResult("success")
+                    resultHandler.onAllDataProcessed()
+                }
+                else -> {
+                    executionStat.trackResult("time_limit_exceeded")
+                    resultHandler.onTerminatedEarly()
+                }
+            }
+        }
+    }
+
+    /**
+     * Launch a worker in the [batch] scope for each analyzer in the pool. Each worker analyzes the next unprocessed
+     * frame until there are none left. If the error listener asks to terminate, [terminated] is set and the whole
+     * batch is canceled.
+     */
+    private fun processFrames(
+        frames: List<DataFrame>,
+        resultOrder: ResultOrder,
+        batch: CoroutineScope,
+        terminated: AtomicBoolean
+    ) {
+        val nextFrame = AtomicInteger(0)
+        val reorderBuffer = ReorderBuffer<Pair<Output, DataFrame>>()
+        val reorderMutex = Mutex()
+
+        fun terminate() {
+            terminated.set(true)
+            batch.cancel()
+        }
+
+        suspend fun deliverResult(output: Output, frame: DataFrame) {
+            try {
+                resultHandler.onResult(output, frame)
+            } catch (e: CancellationException) {
+                // the batch was terminated or canceled, which is not a failure of the result handler
+                throw e
+            } catch (t: Throwable) {
+                if (withContext(Dispatchers.Main) { analyzerLoopErrorListener.onResultFailure(t) }) {
+                    terminate()
+                }
+            }
+        }
+
+        // frames that fail to be analyzed hold their place in the order with a null output
+        suspend fun deliver(index: Int, output: Output?, frame: DataFrame) = when (resultOrder) {
+            ResultOrder.COMPLETION -> if (output != null) deliverResult(output, frame) else Unit
+            ResultOrder.INPUT -> reorderMutex.withLock {
+                reorderBuffer.add(index, output?.let { it to frame }).forEach { deliverResult(it.first, it.second) }
+            }
+        }
+
+        analyzerPool.analyzers.forEach { analyzer ->
+            batch.launch(ScanDispatchers.inference) {
+                val stat = Stats.trackRepeatingTask("analyzer_execution:${analyzer::class.java.simpleName}")
+                var index = nextFrame.getAndIncrement()
+                while (index < frames.size) {
+                    yield() // allow for this to be canceled
+                    val frame = frames[index]
+                    val output = try {
+                        analyzer.analyze(frame, getState()).also { stat.trackResult("success") }
+                    } catch (e: CancellationException) {
+                        throw e
+                    } catch (t: Throwable) {
+                        stat.trackResult("analyzer_failure")
+                        if (withContext(Dispatchers.Main) { analyzerLoopErrorListener.onAnalyzerFailure(t) }) {
+                            terminate()
+                        }
+                        null
+                    }
+
+                    deliver(index, output, frame)
+                    index = nextFrame.getAndIncrement()
+                }
+            }
+        }
+    }
+
     override suspend fun onResult(result: Output, data: DataFrame): Boolean {
         val framesProcessed = this.framesProcessed.incrementAndGet()
         val timeElapsed = startedAt?.elapsedSince() ?: Duration.ZERO
@@ -4,11 +4,19 @@ import androidx.lifecycle.Lifecycle
 import androidx.lifecycle.LifecycleObserver
 import androidx.lifecycle.LifecycleOwner
 import androidx.lifecycle.OnLifecycleEvent
+import com.getbouncer.scan.framework.time.Duration
+import com.getbouncer.scan.framework.time.milliseconds
 import com.getbouncer.scan.framework.util.FrameRateTracker
-import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.CancellationException
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.cancel
+import kotlinx.coroutines.channels.Channel
+import kotlinx.coroutines.channels.ClosedSendChannelException
+import kotlinx.coroutines.delay
 import kotlinx.coroutines.launch
 import kotlinx.coroutines.runBlocking
-import kotlinx.coroutines.withContext
+import java.util.concurrent.atomic.AtomicReference
 
 /**
  * A result handler for data processing. This is called when results are available from an [Analyzer].
@@ -27,6 +35,7 @@ abstract class StatefulResultHandler<Input, State, Output, Verdict>(
     /**
      * The state of the result handler. This can be read, but not updated by analyzers.
      */
+    @Volatile
     var state: State = initialState
         protected set
 
@@ -76,17 +85,44 @@ interface AggregateResultListener<InterimResult, FinalResult> {
     suspend fun onReset()
 }
 
+/**
+ * The number of results that can be waiting for aggregation before analyzers are suspended while posting more.
+ */
+private const val AGGREGATOR_MAILBOX_CAPACITY = 8
+
+/**
+ * The time between display frames on a 60Hz display. Pacing interim results to this interval delivers at most one
+ * interim result per display frame.
+ */
+@JvmField
+val DISPLAY_FRAME_INTERVAL = 16.milliseconds
+
 /**
  * The [ResultAggregator] processes results from analyzers until a condition is met. That condition is part of the
  * aggregator's logic.
+ *
+ * The aggregator is an actor. Analyzers post their results to a bounded mailbox, and a single coroutine on the
+ * [ScanDispatchers.aggregation] lane aggregates them one at a time and notifies the [listener]. All changes to the
+ * [state] happen in that coroutine, so aggregators and the state they hold do not need to be threadsafe. Analyzers do
+ * not wait for their results to be aggregated, and only suspend if the mailbox is full. Once a final result is
+ * produced, the next result posted tells the loop to stop, and any results still in the mailbox are ignored.
+ *
+ * By default, the [listener] is notified of every interim result. If an [interimResultInterval] is set, interim results
+ * are conflated instead. Only the latest interim result is delivered, at most once per interval, and older interim
+ * results are released as soon as they are replaced. This keeps the frames held by interim results from piling up
+ * when the listener renders them, for example with an interval of [DISPLAY_FRAME_INTERVAL]. The interim result for
+ * the frame that produced the final result is always delivered before the final result.
+ *
+ * @param interimResultInterval: the minimum time between interim results, or null to deliver every interim result
  */
-abstract class ResultAggregator<DataFrame, State, AnalyzerResult, InterimResult, FinalResult>(
+abstract class ResultAggregator<DataFrame, State, AnalyzerResult, InterimResult, FinalResult> @JvmOverloads constructor(
     private val listener: AggregateResultListener<InterimResult, FinalResult>,
-    private val initialState: State
+    private val initialState: State,
+    private val interimResultInterval: Duration? = null
 ) : StatefulResultHandler<DataFrame, State, AnalyzerResult, Boolean>(initialState), LifecycleObserver {
-    private var isCanceled = false
-    private var isPaused = false
-    private var isFinished = false
+    @Volatile private var isCanceled = false
+    @Volatile private var isPaused = false
+    @Volatile private var isFinished = false
 
     private val aggregatorExecutionStats = runBlocking {
         Stats.trackRepeatingTask("${this@ResultAggregator::class.java.simpleName}_aggregator_execution")
@@ -94,6 +130,45 @@ abstract class ResultAggregator<DataFrame, State, AnalyzerResult, InterimResult,
 
     private val frameRateTracker by lazy { FrameRateTracker(this::class.java.simpleName) }
 
+    private sealed class Message<out DataFrame, out AnalyzerResult> {
+
+        class Aggregate<DataFrame, AnalyzerResult>(val frame: DataFrame, val result: AnalyzerResult) :
+            Message<DataFrame, AnalyzerResult>()
+
+        object Reset : Message<Nothing, Nothing>()
+    }
+
+    private val aggregationScope = CoroutineScope(ScanDispatchers.aggregation + SupervisorJob())
+
+    /**
+     * A failure to aggregate a result, thrown to the analyzer that posts the next result.
+     */
+    private val aggregationFailure = AtomicReference<Throwable?>(null)
+
+    // the channels are created and their coroutines launched on first use, so keep the delegates to check for that
+    private val mailboxDelegate = lazy {
+        Channel<Message<DataFrame, AnalyzerResult>>(AGGREGATOR_MAILBOX_CAPACITY).also { mailbox ->
+            aggregationScope.launch { for (message in mailbox) handleMessage(message) }
+        }
+    }
+    private val mailbox by mailboxDelegate
+
+    private val latestInterimResultDelegate = lazy {
+        Channel<InterimResult>(Channel.CONFLATED).also { latest ->
+            val intervalMillis = interimResultInterval?.inMilliseconds?.toLong() ?: 0
+            aggregationScope.launch {
+                for (interimResult in latest) {
+                    // an interim result taken before the final result was delivered is stale
+                    if (!isFinished && !isCanceled) {
+                        listener.onInterimResult(interimResult)
+                    }
+                    delay(intervalMillis)
+                }
+            }
+        }
+    }
+    private val latestInterimResult by latestInterimResultDelegate
+
     /**
      * Reset the state of the aggregator and pause aggregation. This is useful for aggregators that can be backgrounded.
      * For example, a user that is scanning an object, but then backgrounds the scanning app. In the case that the scan
@@ -115,11 +190,17 @@ abstract class ResultAggregator<DataFrame, State, AnalyzerResult, InterimResult,
 
     /**
      * Cancel a result aggregator. This means that the result aggregator will ignore all further results and will never
-     * return a final result.
+     * return a final result. The aggregation coroutines are stopped, so a canceled aggregator cannot be reset.
      */
     fun cancel() {
-        reset()
         isCanceled = true
+        if (mailboxDelegate.isInitialized()) {
+            mailbox.close()
+        }
+        if (latestInterimResultDelegate.isInitialized()) {
+            latestInterimResult.close()
+        }
+        aggregationScope.cancel()
     }
 
     /**
@@ -133,38 +214,102 @@ abstract class ResultAggregator<DataFrame, State, AnalyzerResult, InterimResult,
     /**
      * Reset the state of the aggregator. This is useful for aggregating data that can become invalid, such as when a
      * user is scanning an object, and moves the object away from the camera before the scan has completed.
+     *
+     * The reset is queued behind any results already posted, so this does not block the calling thread.
      */
     override fun reset() {
-        super.reset()
+        if (isCanceled) {
+            return
+        }
         isPaused = false
-        isCanceled = false
-        isFinished = false
 
-        state = initialState
+        if (!mailbox.offer(Message.Reset)) {
+            aggregationScope.launch { mailbox.send(Message.Reset) }
+        }
+    }
+
+    /**
+     * Post a result to be aggregated without waiting for it to be aggregated. Returns true if an earlier result produced
+     * a final result, or if the aggregator has been canceled, in which case this result is ignored. If an earlier
+     * result failed to be aggregated, the failure is thrown here instead.
+     */
+    override suspend fun onResult(result: AnalyzerResult, data: DataFrame): Boolean {
+        aggregationFailure.getAndSet(null)?.let { throw it }
+
+        return when {
+            isPaused -> false
+            isCanceled || isFinished -> true
+            else -> {
+                val message = Message.Aggregate(data, result)
+                try {
+                    if (!mailbox.offer(message)) {
+                        mailbox.send(message)
+                    }
+                    false
+                } catch (e: ClosedSendChannelException) {
+                    // the aggregator was canceled while this result was being posted
+                    true
+                }
+            }
+        }
+    }
 
-        frameRateTracker.reset()
-        runBlocking { listener.onReset() }
+    private suspend fun handleMessage(message: Message<DataFrame, AnalyzerResult>) {
+        when (message) {
+            is Message.Aggregate -> try {
+                if (!isPaused && !isCanceled && !isFinished) {
+                    aggregate(message.frame, message.result)
+                }
+            } catch (e: CancellationException) {
+                throw e
+            } catch (t: Throwable) {
+                aggregationFailure.set(t)
+            }
+            is Message.Reset -> {
+                discardInterimResult()
+                state = initialState
+                isFinished = false
+                frameRateTracker.reset()
+                onReset()
+                listener.onReset()
+            }
+        }
     }
 
-    override suspend fun onResult(result: AnalyzerResult, data: DataFrame): Boolean = when {
-        isPaused -> false
-        isCanceled || isFinished -> true
-        else -> withContext(Dispatchers.Default) {
-            frameRateTracker.trackFrameProcessed()
+    private suspend fun aggregate(frame: DataFrame, result: AnalyzerResult) {
+        frameRateTracker.trackFrameProcessed()
 
-            val (interimResult, finalResult) = aggregateResult(data, result)
+        val (interimResult, finalResult) = aggregateResult(frame, result)
 
-            launch { listener.onInterimResult(interimResult) }
+        aggregatorExecutionStats.trackResult("frame_processed")
 
-            aggregatorExecutionStats.trackResult("frame_processed")
+        if (finalResult != null) {
+            isFinished = true
+            discardInterimResult()
+            listener.onInterimResult(interimResult)
+            listener.onResult(finalResult)
+        } else if (interimResultInterval != null) {
+            latestInterimResult.offer(interimResult)
+        } else {
+            listener.onInterimResult(interimResult)
+        }
+    }
 
-            finalResult?.also {
-                isFinished = true
-                launch { listener.onResult(it) }
-            } != null
+    /**
+     * Drop an interim result that is waiting to be delivered.
+     */
+    private fun discardInterimResult() {
+        if (latestInterimResultDelegate.isInitialized()) {
+            latestInterimResult.poll()
         }
     }
 
+    /**
+     * Reset any state held by the aggregator outside of its [state]. This is called from the aggregation coroutine
+     * before the [listener] is notified of the reset.
+     */
+    protected open suspend fun onReset() { }
+
     /**
      * Aggregate a new result. If this method returns a non-null [FinalResult], the aggregator will stop listening for
      * new results.
@@ -0,0 +1,121 @@
+package com.getbouncer.scan.framework
+
+import kotlinx.coroutines.CoroutineDispatcher
+import kotlinx.coroutines.asCoroutineDispatcher
+import java.util.concurrent.LinkedBlockingQueue
+import java.util.concurrent.ThreadFactory
+import java.util.concurrent.ThreadPoolExecutor
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * The number of CPU cores left free for aggregation, listener callbacks, and the host app.
+ */
+private const val RESERVED_CORES = 1
+
+/**
+ * How long an idle scanning thread is kept alive before it is released.
+ */
+private const val IDLE_THREAD_KEEP_ALIVE_SECONDS = 30L
+
+/**
+ * Calculate how many inferences can run in parallel on a device with [cores] CPU cores when each interpreter uses
+ * [threadsPerInterpreter] threads, leaving [RESERVED_CORES] free.
+ */
+internal fun inferenceParallelism(cores: Int, threadsPerInterpreter: Int): Int =
+    ((cores - RESERVED_CORES) / threadsPerInterpreter.coerceAtLeast(1)).coerceAtLeast(1)
+
+/**
+ * Dispatchers owned by the scanning framework. Analyzers run on the bounded [inference] dispatcher, sized so that the
+ * interpreters running on it do not oversubscribe the device's cores. Aggregation and result listeners run on a
+ * reserved single-threaded [aggregation] lane so that they are never queued behind inference.
+ *
+ * Because neither dispatcher shares threads with [kotlinx.coroutines.Dispatchers.Default], heavy work in the host app
+ * cannot starve scanning, and scanning cannot starve the host app.
+ */
+object ScanDispatchers {
+
+    private val inferenceExecutor by lazy {
+        val parallelism = inferenceParallelism(Runtime.getRuntime().availableProcessors(), interpreterThreads)
+        ThreadPoolExecutor(
+            parallelism,
+            parallelism,
+            IDLE_THREAD_KEEP_ALIVE_SECONDS,
+            TimeUnit.SECONDS,
+            LinkedBlockingQueue(),
+            ScanThreadFactory("bouncer-inference")
+        ).apply { allowCoreThreadTimeOut(true) }
+    }
+
+    private val aggregationExecutor by lazy {
+        ThreadPoolExecutor(
+            1,
+            1,
+            IDLE_THREAD_KEEP_ALIVE_SECONDS,
+            TimeUnit.SECONDS,
+            LinkedBlockingQueue(),
+            ScanThreadFactory("bouncer-aggregation")
+        ).apply { allowCoreThreadTimeOut(true) }
+    }
+
+    /**
+     * The number of threads each interpreter is configured to use with `Interpreter.Options.setNumThreads`. The
+     * [inference] dispatcher is shared by every scan in the process, so this is set once with
+     * [configureInterpreterThreads] and does not change while scans are running.
+     */
+    @JvmStatic
+    @Volatile
+    var interpreterThreads: Int = 1
+        private set
+
+    private var interpreterThreadsConfigured = false
+
+    /**
+     * Set the number of threads each interpreter uses, and size the [inference] dispatcher to match. Only the first
+     * call takes effect, so that one scan cannot resize the dispatcher under another. Returns the number of threads
+     * interpreters should be configured with, which differs from [threads] if another scan configured it first.
+     */
+    @JvmStatic
+    @Synchronized
+    fun configureInterpreterThreads(threads: Int): Int {
+        if (!interpreterThreadsConfigured) {
+            interpreterThreadsConfigured = true
+            interpreterThreads = threads.coerceAtLeast(1)
+            resizeInferenceExecutor(inferenceParallelism(Runtime.getRuntime().availableProcessors(), interpreterThreads))
+        }
+        return interpreterThreads
+    }
+
+    /**
+     * A bounded dispatcher for running analyzers.
+     */
+    @JvmStatic
+    val inference: CoroutineDispatcher by lazy { inferenceExecutor.asCoroutineDispatcher() }
+
+    /**
+     * A single-threaded dispatcher reserved for aggregating results and notifying listeners.
+     */
+    @JvmStatic
+    val aggregation: CoroutineDispatcher by lazy { aggregationExecutor.asCoroutineDispatcher() }
+
+    private fun resizeInferenceExecutor(parallelism: Int) {
+        // the core pool size may never exceed the maximum pool size, so order the updates accordingly
+        if (parallelism > inferenceExecutor.maximumPoolSize) {
+            inferenceExecutor.maximumPoolSize = parallelism
+            inferenceExecutor.corePoolSize = parallelism
+        } else {
+            inferenceExecutor.corePoolSize = parallelism
+            inferenceExecutor.maximumPoolSize = parallelism
+        }
+    }
+}
+
+/**
+ * Create named daemon threads so that scanning threads never keep the process alive.
+ */
+private class ScanThreadFactory(private val name: String) : ThreadFactory {
+    private val threadCount = AtomicInteger(0)
+
+    override fun newThread(runnable: Runnable): Thread =
+        Thread(runnable, "$name-${threadCount.incrementAndGet()}").apply { isDaemon = true }
+}
@@ -0,0 +1,91 @@
+package com.getbouncer.scan.framework
+
+import com.getbouncer.scan.framework.time.Clock
+import com.getbouncer.scan.framework.time.ClockMark
+import com.getbouncer.scan.framework.time.Duration
+import com.getbouncer.scan.framework.time.max
+import kotlinx.coroutines.sync.Mutex
+import kotlinx.coroutines.sync.withLock
+
+/**
+ * The phase from when a [ScanPhaseTracker] was started until the first frame was captured. Trackers should be started
+ * when the camera is opened so that this phase measures the time from opening the camera to the first frame.
+ */
+const val SCAN_PHASE_FIRST_FRAME = "first_frame"
+
+/**
+ * The phase from when a [ScanPhaseTracker] was started until the scan finished.
+ */
+const val SCAN_PHASE_TOTAL = "total"
+
+/**
+ * Keep track of how long each phase of a scan takes and how many frames were processed during each phase. Phases are
+ * recorded to [Stats] when they end, so this is cheap to call on every frame.
+ *
+ * A frame is counted towards the phase that was active when the frame was processed, even if that frame caused a
+ * transition to a new phase.
+ *
+ * @param startedAt: when the scan started, usually when the camera was opened
+ */
+class ScanPhaseTracker @JvmOverloads constructor(startedAt: ClockMark = Clock.markNow()) {
+    private val mutex = Mutex()
+
+    private var startedAt: ClockMark = startedAt
+    private var currentPhase: String? = null
+    private var currentPhaseStartedAt: ClockMark = startedAt
+    private var currentPhaseFrames = 0
+    private var totalFrames = 0
+    private var finished = false
+
+    /**
+     * A frame captured at [capturedAt] was processed during [phase], and caused a transition to [nextPhase]. If the
+     * phases are the same, no transition occurred.
+     */
+    suspend fun trackFrame(phase: String, nextPhase: String, capturedAt: ClockMark) = mutex.withLock {
+        if (finished) {
+            return@withLock
+        }
+
+        if (currentPhase == null) {
+            Stats.trackScanPhase(SCAN_PHASE_FIRST_FRAME, startedAt, durationBetween(startedAt, capturedAt), 0)
+            currentPhase = phase
+            currentPhaseStartedAt = capturedAt
+        }
+
+        totalFrames++
+        currentPhaseFrames++
+
+        // results from frames that started processing before a transition may still report the previous phase.
+        if (phase == currentPhase && nextPhase != phase) {
+            Stats.trackScanPhase(phase, currentPhaseStartedAt, currentPhaseStartedAt.elapsedSince(), currentPhaseFrames)
+            currentPhase = nextPhase
+            currentPhaseStartedAt = Clock.markNow()
+            currentPhaseFrames = 0
+        }
+    }
+
+    /**
+     * The scan has finished. Record the total duration of the scan.
+     */
+    suspend fun finish() = mutex.withLock {
+        if (!finished) {
+            finished = true
+            Stats.trackScanPhase(SCAN_PHASE_TOTAL, startedAt, startedAt.elapsedSince(), totalFrames)
+        }
+    }
+
+    /**
+     * Start tracking phases from the beginning, with the scan starting at [startedAt].
+     */
+    suspend fun reset(startedAt: ClockMark = Clock.markNow()) = mutex.withLock {
+        this.startedAt = startedAt
+        currentPhase = null
+        currentPhaseStartedAt = startedAt
+        currentPhaseFrames = 0
+        totalFrames = 0
+        finished = false
+    }
+
+    private fun durationBetween(start: ClockMark, end: ClockMark): Duration =
+        max(Duration.ZERO, start.elapsedSince() - end.elapsedSince())
+}
@@ -17,10 +17,12 @@ object Stats {
 
     private var tasks: MutableMap<String, List<TaskStats>> = mutableMapOf()
     private var repeatingTasks: MutableMap<String, RepeatingTaskStats> = mutableMapOf()
+    private var scanPhases: MutableMap<String, ScanPhaseStats> = mutableMapOf()
 
     private val scanIdMutex = Mutex()
     private val taskMutex = Mutex()
     private val repeatingTaskMutex = Mutex()
+    private val scanPhaseMutex = Mutex()
 
     suspend fun startScan() {
         scanIdMutex.withLock {
@@ -47,6 +49,10 @@ object Stats {
         repeatingTaskMutex.withLock {
             repeatingTasks = mutableMapOf()
         }
+
+        scanPhaseMutex.withLock {
+            scanPhases = mutableMapOf()
+        }
     }
 
     /**
@@ -144,10 +150,32 @@ object Stats {
         return result
     }
 
+    /**
+     * Track the duration and number of frames processed during a phase of a scan. Each phase is recorded once per
+     * scan. If a phase is tracked more than once, the latest value replaces the previous one.
+     */
+    suspend fun trackScanPhase(name: String, startedAt: ClockMark, duration: Duration, frames: Int) {
+        if (!Config.trackStats) {
+            return
+        }
+
+        scanPhaseMutex.withLock {
+            scanPhases[name] = ScanPhaseStats(startedAt, duration, frames)
+        }
+
+        if (Config.isDebug) {
+            Log.v(Config.logTag, "Scan phase $name took $duration over $frames frames")
+        }
+    }
+
     @JvmStatic
     @CheckResult
     fun getRepeatingTasks() = repeatingTasks.toMap()
 
+    @JvmStatic
+    @CheckResult
+    fun getScanPhases() = scanPhases.toMap()
+
     @JvmStatic
     @CheckResult
     fun getTasks() = tasks.toMap()
@@ -185,6 +213,12 @@ data class TaskStats(
     val result: String?
 )
 
+data class ScanPhaseStats(
+    val startedAt: ClockMark,
+    val duration: Duration,
+    val frames: Int
+)
+
 data class RepeatingTaskStats(
     val executions: Int,
     val startedAt: ClockMark,
@@ -0,0 +1,243 @@
+package com.getbouncer.scan.framework
+
+import android.content.Context
+import android.util.Log
+import com.getbouncer.scan.framework.time.Clock
+import com.getbouncer.scan.framework.time.ClockMark
+import com.getbouncer.scan.framework.time.Duration
+import com.getbouncer.scan.framework.time.milliseconds
+import com.getbouncer.scan.framework.util.getDeviceName
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.sync.Mutex
+import kotlinx.coroutines.sync.withLock
+
+/**
+ * The number of frames to analyze before measuring the throughput of a worker configuration.
+ */
+private const val DEFAULT_FRAMES_PER_MEASUREMENT = 10
+
+/**
+ * A worker configuration must outperform the best configuration by this fraction to be considered better.
+ */
+private const val DEFAULT_THROUGHPUT_TOLERANCE = 0.05
+
+/**
+ * How often an inactive worker checks whether it has been activated.
+ */
+private val WORKER_ACTIVATION_POLL_INTERVAL = 50.milliseconds
+
+private const val WORKER_TUNING_PREFERENCES = "bouncer_worker_tuning"
+
+/**
+ * Calculate the number of threads each interpreter should use so that [workers] concurrent analyzers do not
+ * oversubscribe the CPU cores on this device.
+ */
+fun interpreterThreadsPerWorker(workers: Int): Int =
+    (Runtime.getRuntime().availableProcessors() / workers.coerceAtLeast(1)).coerceAtLeast(1)
+
+/**
+ * A listener notified when an [AdaptiveWorkerController] has settled on a number of workers.
+ */
+interface WorkerCountListener {
+    fun onWorkerCountSettled(workers: Int)
+}
+
+/**
+ * Tune the number of workers in an [AnalyzerLoop] based on measured throughput. The controller measures frames
+ * analyzed per second and the average latency of each frame over a window of [framesPerMeasurement] frames, then
+ * hill-climbs the number of active workers, first trying fewer workers, then more. When neither direction improves
+ * throughput, the controller settles on the best configuration and notifies the [listener].
+ *
+ * Fewer workers are preferred when throughput is within a small tolerance, since they use less CPU and memory.
+ * Configurations with an average latency above [maximumLatency] are never chosen over the current best.
+ *
+ * Workers that are deactivated finish their current frame and then stop reading from the flow until reactivated, so
+ * the controller should only be used with hot flows.
+ *
+ * @param initialWorkers: The number of workers to start tuning from. If null, all analyzers in the loop start active.
+ * @param framesPerMeasurement: The number of frames to analyze before evaluating a configuration
+ * @param maximumLatency: The maximum acceptable average time to analyze a single frame
+ * @param listener: A listener to notify when the controller settles on a number of workers
+ * @param settledWorkers: A number of workers previously settled on, for example from a [WorkerCountStore]. If
+ *     specified, the controller starts settled on that many workers and does not tune again.
+ */
+class AdaptiveWorkerController @JvmOverloads constructor(
+    private val initialWorkers: Int? = null,
+    private val framesPerMeasurement: Int = DEFAULT_FRAMES_PER_MEASUREMENT,
+    private val maximumLatency: Duration = Duration.INFINITE,
+    private val listener: WorkerCountListener? = null,
+    private val settledWorkers: Int? = null
+) {
+    @Volatile
+    var activeWorkers: Int = (settledWorkers ?: initialWorkers)?.coerceAtLeast(1) ?: DEFAULT_ANALYZER_PARALLEL_COUNT
+        private set
+
+    @Volatile
+    var settled: Boolean = settledWorkers != null
+        private set
+
+    private var maximumWorkers = DEFAULT_ANALYZER_PARALLEL_COUNT
+
+    private val mutex = Mutex()
+
+    private var measurementStartedAt: ClockMark? = null
+    private var measuredFrames = 0
+    private var measuredLatency: Duration = Duration.ZERO
+
+    private var bestWorkers: Int? = null
+    private var bestThroughput = 0.0
+    private var direction = -1
+    private var reversed = false
+
+    /**
+     * Bind this controller to a loop with [maximumWorkers] available analyzers.
+     */
+    internal fun start(maximumWorkers: Int) {
+        this.maximumWorkers = maximumWorkers.coerceAtLeast(1)
+        activeWorkers = (settledWorkers ?: initialWorkers ?: this.maximumWorkers).coerceIn(1, this.maximumWorkers)
+    }
+
+    /**
+     * Determine if the worker with the given [workerId] should be analyzing frames.
+     */
+    fun isWorkerActive(workerId: Int) = workerId < activeWorkers
+
+    /**
+     * Suspend until the worker with the given [workerId] is allowed to analyze frames.
+     */
+    suspend fun awaitWorkerActive(workerId: Int) {
+        while (!isWorkerActive(workerId)) {
+            delay(WORKER_ACTIVATION_POLL_INTERVAL.inMilliseconds.toLong())
+        }
+    }
+
+    /**
+     * A worker finished analyzing a frame, which took [latency].
+     */
+    suspend fun trackFrameProcessed(latency: Duration) = mutex.withLock {
+        if (settled) {
+            return@withLock
+        }
+
+        // frames from a previous configuration may finish after a change, so start measuring from the first frame
+        val startedAt = measurementStartedAt
+        if (startedAt == null) {
+            measurementStartedAt = Clock.markNow()
+            return@withLock
+        }
+
+        measuredFrames++
+        measuredLatency += latency
+
+        if (measuredFrames >= framesPerMeasurement) {
+            val throughput = measuredFrames / startedAt.elapsedSince().inSeconds
+            onMeasurement(throughput, measuredLatency / measuredFrames)
+
+            measurementStartedAt = null
+            measuredFrames = 0
+            measuredLatency = Duration.ZERO
+        }
+    }
+
+    /**
+     * The current configuration analyzed frames at [throughput] frames per second, taking [averageLatency] per frame.
+     * Decide which configuration to try next.
+     */
+    internal suspend fun onMeasurement(throughput: Double, averageLatency: Duration) {
+        val current = activeWorkers
+        val acceptable = averageLatency <= maximumLatency
+        val best = bestWorkers
+
+        if (Config.isDebug) {
+            Log.d(Config.logTag, "$current workers analyzed $throughput FPS at $averageLatency per frame")
+        }
+
+        val improved = when {
+            best == null -> true
+            !acceptable -> false
+            current < best -> throughput >= bestThroughput * (1 - DEFAULT_THROUGHPUT_TOLERANCE)
+            else -> throughput > bestThroughput * (1 + DEFAULT_THROUGHPUT_TOLERANCE)
+        }
+
+        if (improved) {
+            bestWorkers = current
+            bestThroughput = if (acceptable) throughput else 0.0
+            explore()
+        } else if (!reversed) {
+            activeWorkers = best ?: current
+            reverse()
+        } else {
+            settle()
+        }
+    }
+
+    /**
+     * Try the next configuration in the current direction, reversing direction if at a boundary.
+     */
+    private suspend fun explore() {
+        if (!step()) {
+            if (reversed) settle() else reverse()
+        }
+    }
+
+    private suspend fun reverse() {
+        reversed = true
+        direction = -direction
+        if (!step()) {
+            settle()
+        }
+    }
+
+    private fun step(): Boolean {
+        val next = activeWorkers + direction
+        return if (next in 1..maximumWorkers) {
+            activeWorkers = next
+            true
+        } else {
+            false
+        }
+    }
+
+    private suspend fun settle() {
+        val workers = bestWorkers ?: activeWorkers
+        activeWorkers = workers
+        settled = true
+        Stats.trackRepeatingTask("adaptive_workers").trackResult("settled:$workers")
+        listener?.onWorkerCountSettled(workers)
+    }
+}
+
+/**
+ * Persist the number of workers that performed best for a loop on this device, so that later scans can start from the
+ * tuned configuration.
+ *
+ * @param name: The name of the loop being tuned
+ */
+class WorkerCountStore(context: Context, name: String) : WorkerCountListener {
+    private val preferences = context.applicationContext.getSharedPreferences(
+        WORKER_TUNING_PREFERENCES,
+        Context.MODE_PRIVATE
+    )
+
+    private val key = "${name}_${getDeviceName()}_workers"
+
+    /**
+     * The persisted number of workers, or null if this loop has not been tuned on this device.
+     */
+    fun getWorkerCount(): Int? = preferences.getInt(key, -1).takeIf { it > 0 }
+
+    /**
+     * The number of threads each interpreter should use given the persisted number of workers. Workers in a pipelined
+     * [AnalyzerPool] share interpreters, so at most [interpreterCount] interpreters run concurrently no matter how many
+     * workers are active.
+     *
+     * @param interpreterCount: The number of distinct interpreter instances in the pool
+     */
+    @JvmOverloads
+    fun getInterpreterThreads(interpreterCount: Int = DEFAULT_ANALYZER_PARALLEL_COUNT): Int =
+        interpreterThreadsPerWorker(getWorkerCount()?.coerceAtMost(interpreterCount) ?: interpreterCount)
+
+    override fun onWorkerCountSettled(workers: Int) {
+        preferences.edit().putInt(key, workers).apply()
+    }
+}
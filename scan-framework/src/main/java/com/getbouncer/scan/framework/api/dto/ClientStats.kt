@@ -1,6 +1,7 @@
 package com.getbouncer.scan.framework.api.dto
 
 import com.getbouncer.scan.framework.RepeatingTaskStats
+import com.getbouncer.scan.framework.ScanPhaseStats
 import com.getbouncer.scan.framework.Stats
 import com.getbouncer.scan.framework.TaskStats
 import kotlinx.serialization.SerialName
@@ -19,7 +20,8 @@ data class StatsPayload(
 @Serializable
 data class ScanStatistics(
     @SerialName("tasks") val tasks: Map<String, List<TaskStatistics>>,
-    @SerialName("repeating_tasks") val repeatingTasks: Map<String, RepeatingTaskStatistics>
+    @SerialName("repeating_tasks") val repeatingTasks: Map<String, RepeatingTaskStatistics>,
+    @SerialName("scan_phases") val scanPhases: Map<String, ScanPhaseStatistics> = emptyMap()
 ) {
     companion object {
         @JvmStatic
@@ -30,6 +32,9 @@ data class ScanStatistics(
                 },
                 repeatingTasks = Stats.getRepeatingTasks().mapValues {
                     RepeatingTaskStatistics.fromRepeatingTaskStats(it.value)
+                },
+                scanPhases = Stats.getScanPhases().mapValues {
+                    ScanPhaseStatistics.fromScanPhaseStats(it.value)
                 }
             )
         }
@@ -52,6 +57,22 @@ data class TaskStatistics(
     }
 }
 
+@Serializable
+data class ScanPhaseStatistics(
+    @SerialName("started_at_ms") val startedAtMs: Long,
+    @SerialName("duration_ms") val durationMs: Long,
+    @SerialName("frames") val frames: Int
+) {
+    companion object {
+        @JvmStatic
+        fun fromScanPhaseStats(scanPhaseStats: ScanPhaseStats) = ScanPhaseStatistics(
+            startedAtMs = scanPhaseStats.startedAt.toMillisecondsSinceEpoch(),
+            durationMs = scanPhaseStats.duration.inMilliseconds.toLong(),
+            frames = scanPhaseStats.frames
+        )
+    }
+}
+
 @Serializable
 data class RepeatingTaskStatistics(
     @SerialName("executions") val executions: Int,
@@ -5,6 +5,7 @@ import com.getbouncer.scan.framework.ResultAggregator
 import com.getbouncer.scan.framework.ResultHandler
 import com.getbouncer.scan.framework.StatefulResultHandler
 import com.getbouncer.scan.framework.TerminatingResultHandler
+import com.getbouncer.scan.framework.time.Duration
 
 /**
  * An implementation of a result handler that does not use suspending functions. This allows interoperability with java.
@@ -70,10 +71,11 @@ abstract class BlockingAggregateResultListener<InterimResult, FinalResult> :
  * An implementation of a result aggregator that does not use suspending functions. This allows interoperability with
  * java.
  */
-abstract class BlockingResultAggregator<DataFrame, State, AnalyzerResult, InterimResult, FinalResult>(
+abstract class BlockingResultAggregator<DataFrame, State, AnalyzerResult, InterimResult, FinalResult> @JvmOverloads constructor(
     listener: AggregateResultListener<InterimResult, FinalResult>,
-    initialState: State
-) : ResultAggregator<DataFrame, State, AnalyzerResult, InterimResult, FinalResult>(listener, initialState) {
+    initialState: State,
+    interimResultInterval: Duration? = null
+) : ResultAggregator<DataFrame, State, AnalyzerResult, InterimResult, FinalResult>(listener, initialState, interimResultInterval) {
     override suspend fun aggregateResult(frame: DataFrame, result: AnalyzerResult): Pair<InterimResult, FinalResult?> =
         aggregateResultBlocking(frame, result)
 
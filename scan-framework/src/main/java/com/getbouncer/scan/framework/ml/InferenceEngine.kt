@@ -0,0 +1,186 @@
+package com.getbouncer.scan.framework.ml
+
+import com.getbouncer.scan.framework.time.Duration
+import org.tensorflow.lite.Interpreter
+import java.io.Closeable
+import java.nio.ByteBuffer
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * Runs inference on a machine learning model. Analyzers run their models through an engine rather than directly on a
+ * TensorFlow Lite [Interpreter] so that the rest of the pipeline can run without the native TensorFlow Lite library,
+ * such as when benchmarking with recorded model output.
+ *
+ * Inputs and outputs are tensors in the same form accepted by [Interpreter]: primitive arrays, nested arrays of
+ * primitive arrays, or [ByteBuffer]s. Engines do not need to be threadsafe, since [TensorFlowLiteAnalyzer] serializes
+ * inference.
+ */
+interface InferenceEngine : Closeable {
+
+    /**
+     * Run inference on a model with a single [input] and a single [output].
+     */
+    fun run(input: Any, output: Any)
+
+    /**
+     * Run inference on a model with multiple [inputs], and write to the [outputs] by output index.
+     */
+    fun runForMultipleInputsOutputs(inputs: Array<out Any>, outputs: Map<Int, Any>)
+
+    /**
+     * Get the shape of the input at [inputIndex].
+     */
+    fun getInputShape(inputIndex: Int): IntArray
+
+    /**
+     * Change the shape of the input at [inputIndex], such as to change the batch size.
+     */
+    fun resizeInput(inputIndex: Int, shape: IntArray)
+}
+
+/**
+ * An [InferenceEngine] that runs a model with a TensorFlow Lite [interpreter].
+ */
+class TensorFlowLiteEngine(private val interpreter: Interpreter) : InferenceEngine {
+
+    override fun run(input: Any, output: Any) = interpreter.run(input, output)
+
+    override fun runForMultipleInputsOutputs(inputs: Array<out Any>, outputs: Map<Int, Any>) =
+        interpreter.runForMultipleInputsOutputs(inputs, outputs)
+
+    override fun getInputShape(inputIndex: Int): IntArray = interpreter.getInputTensor(inputIndex).shape()
+
+    override fun resizeInput(inputIndex: Int, shape: IntArray) = interpreter.resizeInput(inputIndex, shape)
+
+    override fun close() = interpreter.close()
+}
+
+/**
+ * An [InferenceEngine] that replays previously recorded model output instead of running a model. Each inference
+ * copies the next of the [recordings] into the output tensors, cycling back to the first recording after the last,
+ * and blocks the calling thread for [latency] to stand in for the time spent running the model.
+ *
+ * Each recording maps output indexes to output tensors. Single-output inference uses the tensor at index 0. As with
+ * [Interpreter], an [IllegalArgumentException] is thrown if a recorded tensor does not fit the output.
+ *
+ * @param recordings: The output of each recorded inference
+ * @param latency: How long each inference takes
+ * @param inputShapes: The shapes of the model inputs, by input index
+ */
+class ReplayInferenceEngine @JvmOverloads constructor(
+    private val recordings: List<Map<Int, Any>>,
+    private val latency: Duration = Duration.ZERO,
+    inputShapes: Map<Int, IntArray> = emptyMap()
+) : InferenceEngine {
+    private val inputShapes = inputShapes.toMutableMap()
+    private val nextRecording = AtomicInteger(0)
+
+    init {
+        require(recordings.isNotEmpty()) { "At least one recording is required" }
+    }
+
+    /**
+     * The number of inferences run by this engine.
+     */
+    val inferenceCount: Int
+        get() = nextRecording.get()
+
+    override fun run(input: Any, output: Any) = runForMultipleInputsOutputs(arrayOf(input), mapOf(0 to output))
+
+    override fun runForMultipleInputsOutputs(inputs: Array<out Any>, outputs: Map<Int, Any>) {
+        val recording = recordings[nextRecording.getAndIncrement() % recordings.size]
+        if (latency > Duration.ZERO) {
+            Thread.sleep(latency.inMilliseconds.toLong())
+        }
+
+        outputs.forEach { (index, output) ->
+            val recorded = requireNotNull(recording[index]) { "No recorded output at index $index" }
+            copyTensor(recorded, output)
+        }
+    }
+
+    override fun getInputShape(inputIndex: Int): IntArray =
+        requireNotNull(inputShapes[inputIndex]) { "No shape for input $inputIndex" }.copyOf()
+
+    override fun resizeInput(inputIndex: Int, shape: IntArray) {
+        inputShapes[inputIndex] = shape.copyOf()
+    }
+
+    override fun close() { }
+}
+
+/**
+ * An [InferenceEngine] that records a copy of the output of each inference run by another [engine], to be replayed
+ * later by a [ReplayInferenceEngine].
+ */
+class RecordingInferenceEngine(private val engine: InferenceEngine) : InferenceEngine by engine {
+    private val recorded = mutableListOf<Map<Int, Any>>()
+
+    /**
+     * The output of each inference run so far, by output index.
+     */
+    val recordings: List<Map<Int, Any>>
+        get() = synchronized(recorded) { recorded.toList() }
+
+    override fun run(input: Any, output: Any) {
+        engine.run(input, output)
+        synchronized(recorded) { recorded.add(mapOf(0 to copyOfTensor(output))) }
+    }
+
+    override fun runForMultipleInputsOutputs(inputs: Array<out Any>, outputs: Map<Int, Any>) {
+        engine.runForMultipleInputsOutputs(inputs, outputs)
+        synchronized(recorded) { recorded.add(outputs.mapValues { copyOfTensor(it.value) }) }
+    }
+}
+
+/**
+ * Copy the contents of a [source] tensor into a [destination] tensor of the same shape.
+ */
+internal fun copyTensor(source: Any, destination: Any) {
+    when {
+        source is FloatArray && destination is FloatArray -> copyArray(source, destination, source.size, destination.size)
+        source is IntArray && destination is IntArray -> copyArray(source, destination, source.size, destination.size)
+        source is LongArray && destination is LongArray -> copyArray(source, destination, source.size, destination.size)
+        source is ByteArray && destination is ByteArray -> copyArray(source, destination, source.size, destination.size)
+        source is ByteBuffer && destination is ByteBuffer -> {
+            require(source.capacity() == destination.capacity()) {
+                "Cannot copy a tensor of ${source.capacity()} bytes to one of ${destination.capacity()} bytes"
+            }
+            destination.rewind()
+            destination.put(source.duplicate().apply { rewind() })
+            destination.rewind()
+        }
+        source is Array<*> && destination is Array<*> -> {
+            require(source.size == destination.size) {
+                "Cannot copy a tensor dimension of ${source.size} to one of ${destination.size}"
+            }
+            source.indices.forEach { copyTensor(requireNotNull(source[it]), requireNotNull(destination[it])) }
+        }
+        else -> throw IllegalArgumentException(
+            "Cannot copy a tensor of ${source::class.java.simpleName} to ${destination::class.java.simpleName}"
+        )
+    }
+}
+
+private fun copyArray(source: Any, destination: Any, sourceSize: Int, destinationSize: Int) {
+    require(sourceSize == destinationSize) {
+        "Cannot copy a tensor dimension of $sourceSize to one of $destinationSize"
+    }
+    System.arraycopy(source, 0, destination, 0, sourceSize)
+}
+
+/**
+ * Create a copy of a [tensor] that does not share any storage with it.
+ */
+internal fun copyOfTensor(tensor: Any): Any = when (tensor) {
+    is FloatArray -> tensor.copyOf()
+    is IntArray -> tensor.copyOf()
+    is LongArray -> tensor.copyOf()
+    is ByteArray -> tensor.copyOf()
+    is ByteBuffer -> ByteBuffer.allocate(tensor.capacity()).order(tensor.order()).apply {
+        put(tensor.duplicate().apply { rewind() })
+        rewind()
+    }
+    is Array<*> -> Array(tensor.size) { copyOfTensor(requireNotNull(tensor[it])) }
+    else -> throw IllegalArgumentException("Cannot copy a tensor of ${tensor::class.java.simpleName}")
+}
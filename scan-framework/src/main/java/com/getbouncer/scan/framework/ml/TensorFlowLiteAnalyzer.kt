@@ -8,17 +8,38 @@ import com.getbouncer.scan.framework.Config
 import com.getbouncer.scan.framework.FetchedData
 import com.getbouncer.scan.framework.FetchedFile
 import com.getbouncer.scan.framework.Loader
+import com.getbouncer.scan.framework.ScanDispatchers
 import com.getbouncer.scan.framework.time.Timer
+import kotlinx.coroutines.CancellationException
+import kotlinx.coroutines.CompletableDeferred
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.cancel
+import kotlinx.coroutines.channels.Channel
+import kotlinx.coroutines.ensureActive
+import kotlinx.coroutines.launch
 import kotlinx.coroutines.sync.Mutex
 import kotlinx.coroutines.sync.withLock
 import org.tensorflow.lite.Interpreter
 import java.nio.ByteBuffer
+import kotlin.coroutines.coroutineContext
 
 /**
- * A TensorFlowLite analyzer uses an [Interpreter] to analyze data.
+ * The number of transformed frames that may wait for an analyzer's inference stage while it runs inference on another.
+ */
+private const val INFERENCE_QUEUE_CAPACITY = 1
+
+/**
+ * A TensorFlowLite analyzer uses an [InferenceEngine], usually a [TensorFlowLiteEngine], to analyze data.
+ *
+ * Analysis runs in stages. The calling worker transforms the data, then hands it to this analyzer's inference stage
+ * through a bounded queue. A single coroutine runs inference for each queued frame in order, and the calling worker
+ * interprets the output. This allows a single analyzer to be shared by several workers so that preparing one frame and
+ * interpreting another overlap with inference on a third. See [com.getbouncer.scan.framework.AnalyzerPoolFactory].
  */
 abstract class TensorFlowLiteAnalyzer<Input, MLInput, Output, MLOutput>(
-    private val tfInterpreter: Interpreter,
+    private val inferenceEngine: InferenceEngine,
     private val debug: Boolean = false
 ) : Analyzer<Input, Unit, Output> {
 
@@ -28,31 +49,85 @@ abstract class TensorFlowLiteAnalyzer<Input, MLInput, Output, MLOutput>(
 
     protected abstract suspend fun transformData(data: Input): MLInput
 
-    protected abstract suspend fun executeInference(tfInterpreter: Interpreter, data: MLInput, mlOutput: MLOutput)
+    protected abstract suspend fun executeInference(inferenceEngine: InferenceEngine, data: MLInput, mlOutput: MLOutput)
 
     private val loggingTimer by lazy {
         Timer.newInstance(Config.logTag, this::class.java.simpleName, enabled = debug)
     }
 
+    private class InferenceRequest<MLInput, MLOutput>(
+        val mlInput: MLInput,
+        val mlOutput: MLOutput,
+        val requester: Job?
+    ) {
+        val completed = CompletableDeferred<Unit>()
+    }
+
+    private val inferenceScope = CoroutineScope(ScanDispatchers.inference + SupervisorJob())
+
+    private val inferenceQueue by lazy {
+        Channel<InferenceRequest<MLInput, MLOutput>>(INFERENCE_QUEUE_CAPACITY).also { queue ->
+            inferenceScope.launch {
+                try {
+                    for (request in queue) runInference(request)
+                } finally {
+                    // release any workers still waiting on inference once this analyzer is closed
+                    queue.close()
+                    generateSequence { queue.poll() }.forEach { it.completed.cancel() }
+                }
+            }
+        }
+    }
+
+    /**
+     * Analyze the [data]. If the calling coroutine is canceled, such as when the loop running this analyzer finishes,
+     * analysis stops at the next stage boundary. Inference is not started for a canceled frame, and the output of
+     * inference is not interpreted.
+     */
     override suspend fun analyze(data: Input, state: Unit): Output {
         val mlInput = loggingTimer.measureSuspend("transform") {
             transformData(data)
         }
 
+        coroutineContext.ensureActive()
         val mlOutput = loggingTimer.measureSuspend("prepare") {
             buildEmptyMLOutput()
         }
 
         loggingTimer.measureSuspend("infer") {
-            executeInference(tfInterpreter, mlInput, mlOutput)
+            val request = InferenceRequest(mlInput, mlOutput, coroutineContext[Job])
+            inferenceQueue.send(request)
+            request.completed.await()
         }
 
+        coroutineContext.ensureActive()
         return loggingTimer.measureSuspend("interpret") {
             interpretMLOutput(data, mlOutput)
         }
     }
 
-    fun close() = tfInterpreter.close()
+    private suspend fun runInference(request: InferenceRequest<MLInput, MLOutput>) {
+        // the frame may have been canceled while waiting for another frame's inference
+        if (request.requester?.isActive == false) {
+            request.completed.cancel()
+            return
+        }
+
+        try {
+            executeInference(inferenceEngine, request.mlInput, request.mlOutput)
+            request.completed.complete(Unit)
+        } catch (e: CancellationException) {
+            request.completed.cancel(e)
+            throw e
+        } catch (t: Throwable) {
+            request.completed.completeExceptionally(t)
+        }
+    }
+
+    fun close() {
+        inferenceScope.cancel()
+        inferenceEngine.close()
+    }
 }
 
 /**
@@ -73,6 +148,12 @@ abstract class TFLAnalyzerFactory<Output : Analyzer<*, *, *>>(
     protected suspend fun createInterpreter(): Interpreter? =
         createInterpreter(fetchedModel)
 
+    /**
+     * Create a [TensorFlowLiteEngine] that runs the fetched model, or null if the model could not be loaded.
+     */
+    protected suspend fun createInferenceEngine(): InferenceEngine? =
+        createInterpreter()?.let { TensorFlowLiteEngine(it) }
+
     private suspend fun createInterpreter(fetchedModel: FetchedData): Interpreter? = try {
         loadModel(fetchedModel)?.let { Interpreter(it, tfOptions) }
     } catch (t: Throwable) {
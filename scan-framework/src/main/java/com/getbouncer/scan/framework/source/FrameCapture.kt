@@ -0,0 +1,216 @@
+package com.getbouncer.scan.framework.source
+
+import android.graphics.Bitmap
+import android.graphics.BitmapFactory
+import android.graphics.ImageFormat
+import android.graphics.Rect
+import android.graphics.YuvImage
+import android.util.Size
+import com.getbouncer.scan.framework.time.Duration
+import com.getbouncer.scan.framework.time.nanoseconds
+import kotlinx.coroutines.flow.Flow
+import kotlinx.coroutines.flow.emitAll
+import kotlinx.coroutines.flow.flow
+import java.io.ByteArrayOutputStream
+import java.io.Closeable
+import java.io.File
+import java.io.IOException
+import java.io.RandomAccessFile
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
+import java.nio.channels.FileChannel
+
+/*
+ * A capture file holds a sequence of raw camera frames. All values are little endian.
+ *
+ * File header:
+ *   int magic, int version
+ *
+ * Each frame, prefixed with its length so that a reader can skip to the next frame without reading the pixels:
+ *   int length (the number of bytes that follow in this frame)
+ *   long capturedAtNanoseconds (since the capture started)
+ *   int format, int width, int height
+ *   int previewWidth, int previewHeight
+ *   int cardFinderLeft, int cardFinderTop, int cardFinderRight, int cardFinderBottom
+ *   byte[] pixels
+ */
+internal const val CAPTURE_FILE_MAGIC = 0x52464342 // "BCFR"
+internal const val CAPTURE_FILE_VERSION = 1
+internal const val CAPTURE_FILE_HEADER_BYTES = 8
+internal const val FRAME_LENGTH_BYTES = 4
+internal const val FRAME_METADATA_BYTES = 8 + 9 * 4
+
+private const val NV21_JPEG_QUALITY = 95
+
+/**
+ * The size of each region of a capture file that is memory-mapped at once. Frames are sliced from these regions so
+ * that the file is not mapped once per frame.
+ */
+private const val READ_WINDOW_BYTES = 64L * 1024 * 1024
+
+/**
+ * The pixel format of a captured frame.
+ */
+enum class RawFrameFormat(internal val id: Int) {
+
+    /**
+     * Four bytes per pixel in red, green, blue, alpha order, as stored by an ARGB_8888 [Bitmap].
+     */
+    RGBA_8888(1),
+
+    /**
+     * A full resolution luminance plane followed by an interleaved half resolution V/U plane, as produced by the
+     * camera1 preview.
+     */
+    NV21(2);
+
+    companion object {
+        internal fun fromId(id: Int) = values().firstOrNull { it.id == id }
+    }
+}
+
+/**
+ * A frame read from a capture file. The [pixels] are mapped directly from the file and are only valid until the
+ * reader that produced this frame is closed.
+ */
+class CapturedFrame(
+    val capturedAt: Duration,
+    val format: RawFrameFormat,
+    val width: Int,
+    val height: Int,
+    val previewSize: Size,
+    val cardFinder: Rect,
+    val pixels: ByteBuffer
+) {
+
+    /**
+     * Convert the pixels of this frame to a bitmap.
+     */
+    fun toBitmap(): Bitmap = when (format) {
+        RawFrameFormat.RGBA_8888 ->
+            Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888).apply {
+                copyPixelsFromBuffer(pixels.duplicate())
+            }
+        RawFrameFormat.NV21 -> {
+            val bytes = ByteArray(pixels.remaining()).also { pixels.duplicate().get(it) }
+            val jpeg = ByteArrayOutputStream().use {
+                YuvImage(bytes, ImageFormat.NV21, width, height, null)
+                    .compressToJpeg(Rect(0, 0, width, height), NV21_JPEG_QUALITY, it)
+                it.toByteArray()
+            }
+            BitmapFactory.decodeByteArray(jpeg, 0, jpeg.size)
+        }
+    }
+}
+
+/**
+ * Read frames from a capture [file]. Frames are read lazily from large memory-mapped regions of the file, and the
+ * pixels of each frame are sliced from those regions rather than copied. A frame that was only partially written, for
+ * example because the app was killed while capturing, ends the capture.
+ */
+class FrameCaptureReader(file: File) : Closeable {
+    private val channel = RandomAccessFile(file, "r").channel
+
+    init {
+        val header = readAt(0, CAPTURE_FILE_HEADER_BYTES)
+        if (header == null || header.int != CAPTURE_FILE_MAGIC) {
+            channel.close()
+            throw IOException("$file is not a frame capture file")
+        }
+
+        val version = header.int
+        if (version != CAPTURE_FILE_VERSION) {
+            channel.close()
+            throw IOException("Unsupported frame capture file version $version")
+        }
+    }
+
+    /**
+     * Get the frames in the capture file, in the order they were captured.
+     */
+    fun frames(): Sequence<CapturedFrame> = sequence {
+        val size = channel.size()
+        var window: ByteBuffer? = null
+        var windowStart = 0L
+
+        // slice a region of the file from the current window, mapping a new window if the region is not in it
+        fun mapped(start: Long, length: Long): ByteBuffer {
+            val current = window
+            val inWindow = current != null && start >= windowStart && start + length <= windowStart + current.capacity()
+            val buffer = if (current != null && inWindow) {
+                current
+            } else {
+                val windowLength = length.coerceAtLeast(READ_WINDOW_BYTES).coerceAtMost(size - start)
+                channel.map(FileChannel.MapMode.READ_ONLY, start, windowLength).also {
+                    window = it
+                    windowStart = start
+                }
+            }
+
+            val offset = (start - windowStart).toInt()
+            return buffer.duplicate().apply {
+                position(offset)
+                limit(offset + length.toInt())
+            }.slice()
+        }
+
+        var position = CAPTURE_FILE_HEADER_BYTES.toLong()
+        while (position + FRAME_LENGTH_BYTES <= size) {
+            val length = mapped(position, FRAME_LENGTH_BYTES.toLong()).order(ByteOrder.LITTLE_ENDIAN).int
+            if (length < FRAME_METADATA_BYTES || position + FRAME_LENGTH_BYTES + length > size) {
+                break
+            }
+
+            val metadata = mapped(position + FRAME_LENGTH_BYTES, FRAME_METADATA_BYTES.toLong())
+                .order(ByteOrder.LITTLE_ENDIAN)
+            val capturedAt = metadata.long.nanoseconds
+            val format = RawFrameFormat.fromId(metadata.int)
+            val width = metadata.int
+            val height = metadata.int
+            val previewSize = Size(metadata.int, metadata.int)
+            val cardFinder = Rect(metadata.int, metadata.int, metadata.int, metadata.int)
+
+            val pixelsPosition = position + FRAME_LENGTH_BYTES + FRAME_METADATA_BYTES
+            val pixelsLength = (length - FRAME_METADATA_BYTES).toLong()
+            position += FRAME_LENGTH_BYTES + length
+
+            // skip frames in formats this version does not understand
+            if (format != null) {
+                val pixels = mapped(pixelsPosition, pixelsLength)
+                yield(CapturedFrame(capturedAt, format, width, height, previewSize, cardFinder, pixels))
+            }
+        }
+    }
+
+    override fun close() = channel.close()
+
+    private fun readAt(position: Long, length: Int): ByteBuffer? {
+        val buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN)
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                return null
+            }
+        }
+        return buffer.apply { flip() }
+    }
+}
+
+/**
+ * A [FrameSource] that replays the frames in a capture [file] at the given [speed]. The file is opened each time the
+ * frames are collected, and closed when collection completes or is canceled.
+ */
+class CaptureFileFrameSource @JvmOverloads constructor(
+    private val file: File,
+    private val speed: ReplaySpeed = ReplaySpeed.Native
+) : FrameSource<CapturedFrame> {
+
+    override fun frames(): Flow<CapturedFrame> = flow {
+        FrameCaptureReader(file).use { reader ->
+            emitAll(
+                ReplayFrameSource(speed) {
+                    reader.frames().map { RecordedFrame(it, it.capturedAt) }
+                }.frames()
+            )
+        }
+    }
+}
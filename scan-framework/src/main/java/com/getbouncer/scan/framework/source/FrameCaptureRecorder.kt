@@ -0,0 +1,180 @@
+package com.getbouncer.scan.framework.source
+
+import android.graphics.Bitmap
+import android.graphics.Rect
+import android.util.Size
+import com.getbouncer.scan.framework.time.Clock
+import com.getbouncer.scan.framework.time.ClockMark
+import com.getbouncer.scan.framework.time.Duration
+import java.io.Closeable
+import java.io.File
+import java.io.RandomAccessFile
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
+import java.nio.MappedByteBuffer
+import java.nio.channels.FileChannel
+import kotlin.math.max
+
+/**
+ * The size of each region of the capture file that is mapped into memory at a time.
+ */
+private const val DEFAULT_MAPPED_REGION_BYTES = 64L * 1024 * 1024
+
+/**
+ * Record raw camera frames to a capture [file] that can be replayed with [FrameCaptureReader] or
+ * [CaptureFileFrameSource]. Any existing file is replaced.
+ *
+ * The file is written through memory-mapped regions of [mappedRegionBytes], so frame pixels are copied directly from
+ * the camera buffer into the page cache with no intermediate copies on the heap. Each frame's length prefix is written
+ * after the rest of the frame, so a frame that was only partially written when the app was killed is never read.
+ *
+ * This class is threadsafe.
+ *
+ * @param file: The file to record to
+ * @param mappedRegionBytes: The size of each region of the file to map into memory at a time
+ */
+class FrameCaptureRecorder @JvmOverloads constructor(
+    file: File,
+    private val mappedRegionBytes: Long = DEFAULT_MAPPED_REGION_BYTES
+) : Closeable {
+    private val channel = RandomAccessFile(file, "rw").apply { setLength(0) }.channel
+    private val startedAt = Clock.markNow()
+
+    private lateinit var region: MappedByteBuffer
+    private var position = 0L
+    private var closed = false
+
+    init {
+        reserve(CAPTURE_FILE_HEADER_BYTES)
+        region.putInt(CAPTURE_FILE_MAGIC)
+        region.putInt(CAPTURE_FILE_VERSION)
+        position += CAPTURE_FILE_HEADER_BYTES
+    }
+
+    /**
+     * The number of frames recorded so far.
+     */
+    @Volatile
+    var framesRecorded = 0
+        private set
+
+    /**
+     * Record a frame whose [pixels] are in the given [format]. Only the remaining bytes of [pixels] are recorded, and
+     * its position is not changed.
+     *
+     * @param capturedAt: When the camera captured the frame
+     */
+    @Synchronized
+    fun record(
+        pixels: ByteBuffer,
+        format: RawFrameFormat,
+        width: Int,
+        height: Int,
+        previewSize: Size,
+        cardFinder: Rect,
+        capturedAt: ClockMark = Clock.markNow()
+    ) = writeFrame(pixels.remaining(), format, width, height, previewSize, cardFinder, capturedAt) {
+        it.put(pixels.duplicate())
+    }
+
+    /**
+     * Record an ARGB_8888 [bitmap]. The pixels are copied from the bitmap directly into the capture file.
+     *
+     * @param capturedAt: When the camera captured the frame
+     */
+    @Synchronized
+    fun record(
+        bitmap: Bitmap,
+        previewSize: Size,
+        cardFinder: Rect,
+        capturedAt: ClockMark = Clock.markNow()
+    ) {
+        require(bitmap.config == Bitmap.Config.ARGB_8888) { "Only ARGB_8888 bitmaps can be recorded" }
+        writeFrame(
+            bitmap.byteCount,
+            RawFrameFormat.RGBA_8888,
+            bitmap.width,
+            bitmap.height,
+            previewSize,
+            cardFinder,
+            capturedAt
+        ) { bitmap.copyPixelsToBuffer(it) }
+    }
+
+    /**
+     * Flush the recorded frames to disk, trim the unused end of the file, and close it.
+     */
+    @Synchronized
+    override fun close() {
+        if (closed) {
+            return
+        }
+        closed = true
+
+        region.force()
+        channel.truncate(position)
+        channel.close()
+    }
+
+    private fun writeFrame(
+        pixelsLength: Int,
+        format: RawFrameFormat,
+        width: Int,
+        height: Int,
+        previewSize: Size,
+        cardFinder: Rect,
+        capturedAt: ClockMark,
+        writePixels: (ByteBuffer) -> Unit
+    ) {
+        check(!closed) { "Recorder is closed" }
+        val length = FRAME_METADATA_BYTES + pixelsLength
+        reserve(FRAME_LENGTH_BYTES + length)
+
+        val frameStart = region.position()
+        region.position(frameStart + FRAME_LENGTH_BYTES)
+        region.putLong(captureOffset(capturedAt).inNanoseconds)
+        region.putInt(format.id)
+        region.putInt(width)
+        region.putInt(height)
+        region.putInt(previewSize.width)
+        region.putInt(previewSize.height)
+        region.putInt(cardFinder.left)
+        region.putInt(cardFinder.top)
+        region.putInt(cardFinder.right)
+        region.putInt(cardFinder.bottom)
+
+        val pixels = region.slice()
+        pixels.limit(pixelsLength)
+        writePixels(pixels)
+        region.position(region.position() + pixelsLength)
+
+        // write the length last so that readers never see a partially written frame
+        region.putInt(frameStart, length)
+
+        position += FRAME_LENGTH_BYTES + length
+        framesRecorded++
+    }
+
+    /**
+     * Make sure the mapped region has room for [bytes] more bytes at the current position, mapping a new region if it
+     * does not.
+     */
+    private fun reserve(bytes: Int) {
+        if (::region.isInitialized && region.remaining() >= bytes) {
+            return
+        }
+
+        if (::region.isInitialized) {
+            region.force()
+        }
+
+        region = channel.map(FileChannel.MapMode.READ_WRITE, position, max(mappedRegionBytes, bytes.toLong()))
+        region.order(ByteOrder.LITTLE_ENDIAN)
+    }
+
+    /**
+     * Calculate when a frame was captured relative to the start of the recording.
+     */
+    private fun captureOffset(capturedAt: ClockMark): Duration =
+        (startedAt.elapsedSince() - capturedAt.elapsedSince()).coerceAtLeast(Duration.ZERO)
+}
@@ -0,0 +1,92 @@
+package com.getbouncer.scan.framework.source
+
+import com.getbouncer.scan.framework.time.Duration
+import com.getbouncer.scan.framework.time.measureTime
+import com.getbouncer.scan.framework.time.seconds
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.flow.Flow
+import kotlinx.coroutines.flow.flow
+
+/**
+ * A source of frames to analyze, such as a camera or a recording. The frames can be fed to an analyzer loop, for
+ * example using `ProcessBoundAnalyzerLoop.subscribeTo` or a scan flow's `startFlow`.
+ */
+interface FrameSource<Frame> {
+
+    /**
+     * Get a flow of the frames from this source.
+     */
+    fun frames(): Flow<Frame>
+}
+
+/**
+ * The speed at which a recording is replayed.
+ */
+sealed class ReplaySpeed {
+
+    /**
+     * Replay frames at the times they were recorded.
+     */
+    object Native : ReplaySpeed()
+
+    /**
+     * Replay frames at a fixed number of [framesPerSecond], regardless of when they were recorded.
+     */
+    class FixedRate(val framesPerSecond: Double) : ReplaySpeed() {
+        init {
+            require(framesPerSecond > 0) { "Frame rate must be greater than zero" }
+        }
+    }
+
+    /**
+     * Replay frames as fast as the consumer can accept them.
+     */
+    object AsFastAsPossible : ReplaySpeed()
+}
+
+/**
+ * A [frame] from a recording, captured [capturedAt] after the recording started.
+ */
+data class RecordedFrame<Frame>(val frame: Frame, val capturedAt: Duration)
+
+/**
+ * A [FrameSource] that replays a recording at the given [speed]. The [recording] is read lazily each time the frames
+ * are collected, so that only the frames being replayed need to be held in memory.
+ *
+ * When replaying at [ReplaySpeed.Native] or [ReplaySpeed.FixedRate], a frame that is late because the consumer was
+ * slow is emitted immediately, and the following frames keep their original schedule.
+ */
+open class ReplayFrameSource<Frame>(
+    private val speed: ReplaySpeed,
+    private val recording: () -> Sequence<RecordedFrame<Frame>>
+) : FrameSource<Frame> {
+
+    override fun frames(): Flow<Frame> = flow {
+        var previousScheduledAt: Duration? = null
+        var behindSchedule = Duration.ZERO
+        var emitDuration = Duration.ZERO
+
+        recording().forEachIndexed { index, recordedFrame ->
+            val scheduledAt = when (speed) {
+                is ReplaySpeed.Native -> recordedFrame.capturedAt
+                is ReplaySpeed.FixedRate -> (index / speed.framesPerSecond).seconds
+                is ReplaySpeed.AsFastAsPossible -> null
+            }
+
+            // wait for the gap between frames, less any time the consumer spent on the previous frame
+            val previous = previousScheduledAt
+            if (scheduledAt != null && previous != null) {
+                val wait = scheduledAt - previous - emitDuration - behindSchedule
+                if (wait > Duration.ZERO) {
+                    behindSchedule = Duration.ZERO
+                    delay(wait.inMilliseconds.toLong())
+                } else {
+                    behindSchedule = -wait
+                }
+            }
+            previousScheduledAt = scheduledAt
+
+            emitDuration = measureTime { emit(recordedFrame.frame) }
+        }
+    }
+}
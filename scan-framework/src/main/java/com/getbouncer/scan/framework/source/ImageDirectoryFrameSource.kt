@@ -0,0 +1,36 @@
+package com.getbouncer.scan.framework.source
+
+import android.graphics.Bitmap
+import android.graphics.BitmapFactory
+import com.getbouncer.scan.framework.time.Duration
+import com.getbouncer.scan.framework.time.milliseconds
+import java.io.File
+
+/**
+ * The interval between frames of a typical 30 frame per second camera.
+ */
+private val DEFAULT_FRAME_INTERVAL = 33.milliseconds
+
+private val IMAGE_EXTENSIONS = setOf("jpg", "jpeg", "png", "webp", "bmp")
+
+/**
+ * A [FrameSource] that replays the images in a [directory] in order of their file names. Images carry no capture
+ * time, so at [ReplaySpeed.Native] they are replayed one every [frameInterval].
+ *
+ * Images are decoded lazily as they are replayed. Files that cannot be decoded are skipped.
+ */
+class ImageDirectoryFrameSource @JvmOverloads constructor(
+    directory: File,
+    speed: ReplaySpeed = ReplaySpeed.Native,
+    frameInterval: Duration = DEFAULT_FRAME_INTERVAL
+) : ReplayFrameSource<Bitmap>(
+    speed,
+    {
+        (directory.listFiles() ?: emptyArray())
+            .filter { it.isFile && it.extension.toLowerCase() in IMAGE_EXTENSIONS }
+            .sortedBy { it.name }
+            .asSequence()
+            .mapNotNull { BitmapFactory.decodeFile(it.absolutePath) }
+            .mapIndexed { index, bitmap -> RecordedFrame(bitmap, frameInterval * index) }
+    }
+)
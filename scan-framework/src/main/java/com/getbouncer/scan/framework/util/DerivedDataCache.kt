@@ -0,0 +1,29 @@
+package com.getbouncer.scan.framework.util
+
+/**
+ * A cache of data derived from a single frame, such as crops and scaled copies of an image. Each value is computed at
+ * most once, even when requested by several analyzers at the same time, and other keys can be computed in parallel.
+ *
+ * Attach one of these to a frame so that analyzers sharing the frame can share the work of preparing it, then [clear]
+ * it once the frame has been analyzed to release the derived data.
+ *
+ * This class is threadsafe.
+ */
+class DerivedDataCache {
+    private val values = mutableMapOf<String, Lazy<Any?>>()
+
+    /**
+     * Get the value for [key], computing it with [compute] if it is not yet cached.
+     */
+    fun <T> getOrPut(key: String, compute: () -> T): T {
+        val value = synchronized(values) { values.getOrPut(key) { lazy(compute) } }
+
+        @Suppress("UNCHECKED_CAST")
+        return value.value as T
+    }
+
+    /**
+     * Release all cached values.
+     */
+    fun clear() = synchronized(values) { values.clear() }
+}
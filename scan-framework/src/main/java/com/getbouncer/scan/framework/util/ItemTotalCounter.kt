@@ -1,10 +1,7 @@
 package com.getbouncer.scan.framework.util
 
 import androidx.annotation.CheckResult
-import kotlinx.coroutines.runBlocking
-import kotlinx.coroutines.sync.Mutex
-import kotlinx.coroutines.sync.withLock
-import java.util.LinkedList
+import java.util.TreeMap
 
 interface ItemCounter<T> {
     suspend fun countItem(item: T): Int
@@ -15,19 +12,46 @@ interface ItemCounter<T> {
 }
 
 /**
- * A class that counts and saves items.
+ * A class that counts and saves items. The item with the highest count is tracked as items are counted, so finding it
+ * does not require looking at every item. If several items share the highest count, the first one counted is returned.
+ *
+ * Counting is not threadsafe and is meant to be confined to a single coroutine, such as the one that aggregates results
+ * in a [com.getbouncer.scan.framework.ResultAggregator]. The highest count item is published after each change, so
+ * [getHighestCountItem] may be called from any thread.
  */
 class ItemTotalCounter<T>(firstValue: T? = null) : ItemCounter<T> {
-    private val storageMutex = Mutex()
-    private val items = mutableMapOf<T, Int>()
 
-    init { if (firstValue != null) runBlocking { countItem(firstValue) } }
+    /**
+     * The count of an item, and the order in which the item was first counted to break ties.
+     */
+    private class Entry(val order: Int, var count: Int) {
+        fun outranks(other: Entry) = count > other.count || (count == other.count && order < other.order)
+    }
+
+    private val items = mutableMapOf<T, Entry>()
+    private var highestCountEntry: Entry? = null
+
+    @Volatile
+    private var highestCountItem: Pair<Int, T>? = null
+
+    init { if (firstValue != null) increment(firstValue) }
 
     /**
      * Increment the count for the given item. Return the new count for the given item.
      */
-    override suspend fun countItem(item: T): Int = storageMutex.withLock {
-        1 + (items.put(item, 1 + (items[item] ?: 0)) ?: 0)
+    override suspend fun countItem(item: T): Int = increment(item)
+
+    private fun increment(item: T): Int {
+        val entry = items.getOrPut(item) { Entry(order = items.size, count = 0) }
+        entry.count++
+
+        val highest = highestCountEntry
+        if (highest == null || entry === highest || entry.outranks(highest)) {
+            highestCountEntry = entry
+            highestCountItem = entry.count to item
+        }
+
+        return entry.count
     }
 
     /**
@@ -36,37 +60,96 @@ class ItemTotalCounter<T>(firstValue: T? = null) : ItemCounter<T> {
      * @param minCount the minimum times an item must have been counted.
      */
     @CheckResult
-    override fun getHighestCountItem(minCount: Int): Pair<Int, T>? =
-        items.maxByOrNull { it.value }?.let { if (items[it.key] ?: 0 >= minCount) it.value to it.key else null }
+    override fun getHighestCountItem(minCount: Int): Pair<Int, T>? = highestCountItem?.takeIf { it.first >= minCount }
 
     /**
      * Reset all item counts.
      */
-    override suspend fun reset() = storageMutex.withLock {
+    override suspend fun reset() {
         items.clear()
+        highestCountEntry = null
+        highestCountItem = null
     }
 }
 
 /**
- * A class that keeps track of [maxItemsToTrack] recent items.
+ * A class that keeps track of [maxItemsToTrack] recent items. Recent items are kept in a ring buffer, and each item in
+ * the buffer is ranked by its count and when it was last counted, so counting an item and finding the highest count
+ * take logarithmic time. If several items share the highest count, the most recently counted one is returned.
+ *
+ * Counting is not threadsafe and is meant to be confined to a single coroutine, such as the one that aggregates results
+ * in a [com.getbouncer.scan.framework.ResultAggregator]. The highest count item is published after each change, so
+ * [getHighestCountItem] may be called from any thread.
  */
 class ItemRecencyCounter<T>(private val maxItemsToTrack: Int, firstValue: T? = null) : ItemCounter<T> {
-    private val storageMutex = Mutex()
-    private val items = LinkedList<T>()
+    init { require(maxItemsToTrack > 0) { "At least one item must be tracked" } }
 
-    init { if (firstValue != null) runBlocking { countItem(firstValue) } }
+    /**
+     * The count of an item in the buffer, and the sequence number of the last time it was counted to break ties.
+     */
+    private data class Rank(val count: Int, val lastCounted: Long) : Comparable<Rank> {
+        override fun compareTo(other: Rank): Int =
+            if (count != other.count) count.compareTo(other.count) else lastCounted.compareTo(other.lastCounted)
+    }
+
+    private val recentItems = arrayOfNulls<Any>(maxItemsToTrack)
+    private var nextIndex = 0
+    private var size = 0
+    private var sequence = 0L
+
+    private val items = mutableMapOf<T, Rank>()
+    private val rankedItems = TreeMap<Rank, T>()
+
+    @Volatile
+    private var highestCountItem: Pair<Int, T>? = null
+
+    init { if (firstValue != null) increment(firstValue) }
 
     /**
      * Increment the count for the given item. Return the new count for the given item.
      */
-    override suspend fun countItem(item: T): Int = storageMutex.withLock {
-        items.addFirst(item)
+    override suspend fun countItem(item: T): Int = increment(item)
+
+    private fun increment(item: T): Int {
+        if (size == maxItemsToTrack) {
+            @Suppress("UNCHECKED_CAST")
+            decrementCount(recentItems[nextIndex] as T)
+        } else {
+            size++
+        }
+
+        recentItems[nextIndex] = item
+        nextIndex = (nextIndex + 1) % maxItemsToTrack
 
-        while (items.size > maxItemsToTrack) {
-            items.removeLast()
+        val oldRank = items[item]
+        if (oldRank != null) rankedItems.remove(oldRank)
+        val rank = Rank(count = 1 + (oldRank?.count ?: 0), lastCounted = sequence++)
+        items[item] = rank
+        rankedItems[rank] = item
+
+        publishHighestCountItem()
+        return rank.count
+    }
+
+    /**
+     * Remove the oldest occurrence of an item as it leaves the buffer. This does not change when the item was last
+     * counted, since any later occurrence is still in the buffer.
+     */
+    private fun decrementCount(item: T) {
+        val oldRank = items[item] ?: return
+        rankedItems.remove(oldRank)
+
+        if (oldRank.count == 1) {
+            items.remove(item)
+        } else {
+            val rank = oldRank.copy(count = oldRank.count - 1)
+            items[item] = rank
+            rankedItems[rank] = item
         }
+    }
 
-        items.count { it == item }
+    private fun publishHighestCountItem() {
+        highestCountItem = rankedItems.lastEntry()?.let { it.key.count to it.value }
     }
 
     /**
@@ -75,13 +158,17 @@ class ItemRecencyCounter<T>(private val maxItemsToTrack: Int, firstValue: T? = n
      * @param minCount the minimum times an item must have been counted.
      */
     @CheckResult
-    override fun getHighestCountItem(minCount: Int): Pair<Int, T>? =
-        items.groupingBy { it }.eachCount().filter { it.value >= minCount }.maxByOrNull { it.value }?.let { it.value to it.key }
+    override fun getHighestCountItem(minCount: Int): Pair<Int, T>? = highestCountItem?.takeIf { it.first >= minCount }
 
     /**
      * Reset all item counts.
      */
-    override suspend fun reset() = storageMutex.withLock {
+    override suspend fun reset() {
+        recentItems.fill(null)
+        nextIndex = 0
+        size = 0
         items.clear()
+        rankedItems.clear()
+        highestCountItem = null
     }
 }
@@ -0,0 +1,34 @@
+package com.getbouncer.scan.framework.util
+
+/**
+ * Hold items that complete out of order until all items before them have completed, so that they can be released in
+ * their original order. Items are identified by their index in the original order, starting at 0.
+ *
+ * This class is not threadsafe.
+ */
+class ReorderBuffer<T> {
+    private val pending = mutableMapOf<Int, T?>()
+    private var nextIndex = 0
+
+    /**
+     * The number of items that have completed but are waiting for earlier items.
+     */
+    val pendingCount: Int
+        get() = pending.size
+
+    /**
+     * Add the completed [item] at [index], and return the items that are now ready in order. An item may be null if it
+     * did not produce a value, such as when it failed. Null items hold their place in the order but are not returned.
+     */
+    fun add(index: Int, item: T?): List<T> {
+        require(index >= nextIndex && !pending.containsKey(index)) { "Item $index was already added" }
+        pending[index] = item
+
+        val ready = mutableListOf<T>()
+        while (pending.containsKey(nextIndex)) {
+            pending.remove(nextIndex)?.let { ready.add(it) }
+            nextIndex++
+        }
+        return ready
+    }
+}
@@ -5,6 +5,8 @@ import kotlinx.coroutines.ExperimentalCoroutinesApi
 import kotlinx.coroutines.test.runBlockingTest
 import org.junit.Test
 import kotlin.test.assertEquals
+import kotlin.test.assertNotSame
+import kotlin.test.assertSame
 
 class AnalyzerTest {
 
@@ -43,6 +45,27 @@ class AnalyzerTest {
         assertEquals(0, analyzerPool.analyzers.size)
     }
 
+    @Test
+    @SmallTest
+    @ExperimentalCoroutinesApi
+    fun analyzerPoolSharesInstancesForPipelining() = runBlockingTest {
+        class TestAnalyzerFactory : AnalyzerFactory<TestAnalyzer> {
+            override suspend fun newInstance(): TestAnalyzer? = TestAnalyzer()
+        }
+
+        val analyzerPool = AnalyzerPoolFactory(
+            analyzerFactory = TestAnalyzerFactory(),
+            desiredAnalyzerCount = 3,
+            pipelineDepth = 2
+        ).buildAnalyzerPool()
+
+        assertEquals(3, analyzerPool.desiredAnalyzerCount)
+        assertEquals(6, analyzerPool.analyzers.size)
+        assertEquals(3, analyzerPool.analyzers.distinct().size)
+        assertNotSame(analyzerPool.analyzers[0], analyzerPool.analyzers[1])
+        assertSame(analyzerPool.analyzers[0], analyzerPool.analyzers[3])
+    }
+
     private class TestAnalyzer : Analyzer<Int, Int, Int> {
         override suspend fun analyze(data: Int, state: Int): Int = data + state
     }
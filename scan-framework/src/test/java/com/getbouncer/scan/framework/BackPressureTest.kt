@@ -0,0 +1,56 @@
+package com.getbouncer.scan.framework
+
+import androidx.test.filters.SmallTest
+import kotlinx.coroutines.ExperimentalCoroutinesApi
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.flow.asFlow
+import kotlinx.coroutines.flow.onEach
+import kotlinx.coroutines.flow.toList
+import kotlinx.coroutines.test.runBlockingTest
+import org.junit.Test
+import kotlin.test.assertEquals
+
+class BackPressureTest {
+
+    @Test
+    @SmallTest
+    @ExperimentalCoroutinesApi
+    fun passThrough_deliversAllFrames() = runBlockingTest {
+        val frames = BackPressurePolicy.PassThrough.applyTo((0 until 10).asFlow(), this).toList()
+        assertEquals((0 until 10).toList(), frames)
+    }
+
+    @Test
+    @SmallTest
+    @ExperimentalCoroutinesApi
+    fun conflateLatest_keepsNewestFrame() = runBlockingTest {
+        val frames = BackPressurePolicy.ConflateLatest.applyTo((0 until 10).asFlow(), this).toList()
+        assertEquals(listOf(9), frames)
+    }
+
+    @Test
+    @SmallTest
+    @ExperimentalCoroutinesApi
+    fun dropOldest_keepsNewestFrames() = runBlockingTest {
+        val frames = BackPressurePolicy.DropOldest(3).applyTo((0 until 10).asFlow(), this).toList()
+        assertEquals(listOf(7, 8, 9), frames)
+    }
+
+    @Test
+    @SmallTest
+    @ExperimentalCoroutinesApi
+    fun sampleEveryNth_dropsUnsampledFrames() = runBlockingTest {
+        val source = (0 until 10).asFlow().onEach { delay(10) }
+        val frames = BackPressurePolicy.SampleEveryNth(3).applyTo(source, this).toList()
+        assertEquals(listOf(0, 3, 6, 9), frames)
+    }
+
+    @Test
+    @SmallTest
+    @ExperimentalCoroutinesApi
+    fun throttle_dropsFramesAboveTargetRate() = runBlockingTest {
+        val source = (0 until 10).asFlow().onEach { delay(10) }
+        val frames = BackPressurePolicy.Throttle(0.001).applyTo(source, this).toList()
+        assertEquals(listOf(0), frames)
+    }
+}
@@ -0,0 +1,54 @@
+package com.getbouncer.scan.framework
+
+import androidx.test.filters.SmallTest
+import kotlinx.coroutines.ExperimentalCoroutinesApi
+import kotlinx.coroutines.test.runBlockingTest
+import org.junit.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertFalse
+import kotlin.test.assertTrue
+
+class FrameGateTest {
+
+    private class CountingGate(private val threshold: Int) : FrameGate<Int, Int> {
+        var calls = 0
+
+        override suspend fun shouldAnalyze(frame: Int, state: Int): Boolean {
+            calls++
+            return frame >= threshold
+        }
+    }
+
+    @Test
+    @SmallTest
+    @ExperimentalCoroutinesApi
+    fun frameGateCascade_stopsAtFirstRejection() = runBlockingTest {
+        val first = CountingGate(1)
+        val second = CountingGate(2)
+        val cascade = FrameGateCascade(first, second)
+
+        assertFalse(cascade.shouldAnalyze(0, 0))
+        assertEquals(1, first.calls)
+        assertEquals(0, second.calls)
+
+        assertFalse(cascade.shouldAnalyze(1, 0))
+        assertEquals(1, second.calls)
+
+        assertTrue(cascade.shouldAnalyze(2, 0))
+        assertEquals(3, first.calls)
+        assertEquals(2, second.calls)
+    }
+
+    @Test
+    @SmallTest
+    @ExperimentalCoroutinesApi
+    fun stateFilteredFrameGate_onlyAppliesInMatchingStates() = runBlockingTest {
+        val gate = CountingGate(1)
+        val filtered = StateFilteredFrameGate(gate) { it == 0 }
+
+        assertFalse(filtered.shouldAnalyze(0, 0))
+        assertTrue(filtered.shouldAnalyze(0, 1))
+        assertEquals(1, gate.calls)
+        assertEquals("CountingGate", filtered.name)
+    }
+}
@@ -0,0 +1,62 @@
+package com.getbouncer.scan.framework
+
+import androidx.test.filters.SmallTest
+import com.getbouncer.scan.framework.time.Duration
+import com.getbouncer.scan.framework.time.seconds
+import org.junit.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertNull
+
+class FrameSimilarityCacheTest {
+
+    @Test
+    @SmallTest
+    fun hammingDistance_countsDifferingBits() {
+        assertEquals(0, hammingDistance(0b1011, 0b1011))
+        assertEquals(2, hammingDistance(0b1011, 0b1101))
+        assertEquals(64, hammingDistance(0L, -1L))
+    }
+
+    @Test
+    @SmallTest
+    fun findSimilar_matchesNearbyFingerprints() {
+        val cache = FrameSimilarityCache<Long, Int, String>({ it }, maximumDistance = 2, maximumAge = 10.seconds)
+        cache.put(0b0000, 1, "first")
+        cache.put(0b1111_0000, 1, "second")
+
+        assertEquals("first", cache.findSimilar(0b0011, 1)?.output)
+        assertEquals("second", cache.findSimilar(0b1111_0001, 1)?.output)
+        assertNull(cache.findSimilar(0b0111, 1))
+    }
+
+    @Test
+    @SmallTest
+    fun findSimilar_requiresSameState() {
+        val cache = FrameSimilarityCache<Long, Int, String>({ it }, maximumAge = 10.seconds)
+        cache.put(0, 1, "result")
+
+        assertNull(cache.findSimilar(0, 2))
+        assertEquals("result", cache.findSimilar(0, 1)?.output)
+    }
+
+    @Test
+    @SmallTest
+    fun findSimilar_expiresOldResults() {
+        val cache = FrameSimilarityCache<Long, Int, String>({ it }, maximumAge = Duration.NEGATIVE_INFINITE)
+        cache.put(0, 1, "result")
+
+        assertNull(cache.findSimilar(0, 1))
+    }
+
+    @Test
+    @SmallTest
+    fun put_evictsOldestResult() {
+        val cache = FrameSimilarityCache<Long, Int, String>({ it }, maximumDistance = 0, capacity = 2)
+        cache.put(1, 1, "first")
+        cache.put(2, 1, "second")
+        cache.put(3, 1, "third")
+
+        assertNull(cache.findSimilar(1, 1))
+        assertEquals("third", cache.findSimilar(3, 1)?.output)
+    }
+}
@@ -2,15 +2,26 @@ package com.getbouncer.scan.framework
 
 import androidx.test.filters.MediumTest
 import androidx.test.filters.SmallTest
+import com.getbouncer.scan.framework.time.Clock
 import com.getbouncer.scan.framework.time.Duration
+import com.getbouncer.scan.framework.time.asEpochMillisecondsClockMark
+import com.getbouncer.scan.framework.time.hours
+import com.getbouncer.scan.framework.time.milliseconds
+import com.getbouncer.scan.framework.time.minutes
 import com.getbouncer.scan.framework.time.nanoseconds
+import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.ExperimentalCoroutinesApi
 import kotlinx.coroutines.Job
 import kotlinx.coroutines.channels.Channel
+import kotlinx.coroutines.delay
 import kotlinx.coroutines.flow.receiveAsFlow
+import kotlinx.coroutines.runBlocking
 import kotlinx.coroutines.sync.Mutex
 import kotlinx.coroutines.sync.withLock
+import kotlinx.coroutines.test.TestCoroutineDispatcher
+import kotlinx.coroutines.test.resetMain
 import kotlinx.coroutines.test.runBlockingTest
+import kotlinx.coroutines.test.setMain
 import kotlinx.coroutines.yield
 import org.junit.Ignore
 import org.junit.Test
@@ -157,6 +168,138 @@ class LoopTest {
         assertTrue { analyzerFailure }
     }
 
+    @Test(timeout = 1000)
+    @SmallTest
+    @ExperimentalCoroutinesApi
+    fun processBoundAnalyzerLoop_dropsStaleFrames() = runBlockingTest {
+        val freshFrameCount = 3
+        val resultCount = AtomicInteger(0)
+        val staleFrame = (System.currentTimeMillis() - 1.hours.inMilliseconds.toLong()).asEpochMillisecondsClockMark()
+
+        class TestResultHandler : StatefulResultHandler<Int, Int, String, Boolean>(1) {
+            override suspend fun onResult(result: String, data: Int): Boolean {
+                assertTrue(data > 0, "Stale frame was analyzed")
+                return resultCount.incrementAndGet() >= freshFrameCount
+            }
+        }
+
+        val analyzerPool = AnalyzerPoolFactory(
+            analyzerFactory = TestAnalyzerFactory(),
+            desiredAnalyzerCount = 4
+        ).buildAnalyzerPool()
+
+        val loop = ProcessBoundAnalyzerLoop(
+            analyzerPool = analyzerPool,
+            analyzerLoopErrorListener = object : AnalyzerLoopErrorListener {
+                override fun onAnalyzerFailure(t: Throwable): Boolean { fail(t.message) }
+                override fun onResultFailure(t: Throwable): Boolean { fail(t.message) }
+            },
+            resultHandler = TestResultHandler(),
+            frameDeadline = FrameDeadline(1.minutes) { if (it > 0) Clock.markNow() else staleFrame }
+        )
+
+        val channel = Channel<Int>(Channel.RENDEZVOUS)
+        val job = loop.subscribeTo(channel.receiveAsFlow(), this)
+        assertNotNull(job)
+
+        while (!job.isCompleted) {
+            channel.offer(-1)
+            channel.offer(1)
+            yield()
+        }
+
+        assertTrue { resultCount.get() >= freshFrameCount }
+    }
+
+    @Test(timeout = 1000)
+    @SmallTest
+    @ExperimentalCoroutinesApi
+    fun processBoundAnalyzerLoop_skipsGatedFrames() = runBlockingTest {
+        val passingFrameCount = 3
+        val resultCount = AtomicInteger(0)
+
+        class TestResultHandler : StatefulResultHandler<Int, Int, String, Boolean>(1) {
+            override suspend fun onResult(result: String, data: Int): Boolean {
+                assertTrue(data > 0, "Gated frame was analyzed")
+                return resultCount.incrementAndGet() >= passingFrameCount
+            }
+        }
+
+        val analyzerPool = AnalyzerPoolFactory(
+            analyzerFactory = TestAnalyzerFactory(),
+            desiredAnalyzerCount = 4
+        ).buildAnalyzerPool()
+
+        val loop = ProcessBoundAnalyzerLoop(
+            analyzerPool = analyzerPool,
+            analyzerLoopErrorListener = object : AnalyzerLoopErrorListener {
+                override fun onAnalyzerFailure(t: Throwable): Boolean { fail(t.message) }
+                override fun onResultFailure(t: Throwable): Boolean { fail(t.message) }
+            },
+            resultHandler = TestResultHandler(),
+            frameGate = object : FrameGate<Int, Int> {
+                override suspend fun shouldAnalyze(frame: Int, state: Int): Boolean = frame > 0
+            }
+        )
+
+        val channel = Channel<Int>(Channel.RENDEZVOUS)
+        val job = loop.subscribeTo(channel.receiveAsFlow(), this)
+        assertNotNull(job)
+
+        while (!job.isCompleted) {
+            channel.offer(-1)
+            channel.offer(1)
+            yield()
+        }
+
+        assertTrue { resultCount.get() >= passingFrameCount }
+    }
+
+    @Test(timeout = 200)
+    @SmallTest
+    @ExperimentalCoroutinesApi
+    fun processBoundAnalyzerLoop_bypassesSimilarityCacheInOtherStates() = runBlockingTest {
+        val expectedResultCount = 3
+        val resultCount = AtomicInteger(0)
+        val fingerprintCount = AtomicInteger(0)
+
+        class TestResultHandler : StatefulResultHandler<Int, Int, String, Boolean>(1) {
+            override suspend fun onResult(result: String, data: Int): Boolean =
+                resultCount.incrementAndGet() >= expectedResultCount
+        }
+
+        val analyzerPool = AnalyzerPoolFactory(
+            analyzerFactory = TestAnalyzerFactory(),
+            desiredAnalyzerCount = 1
+        ).buildAnalyzerPool()
+
+        val loop = ProcessBoundAnalyzerLoop(
+            analyzerPool = analyzerPool,
+            analyzerLoopErrorListener = object : AnalyzerLoopErrorListener {
+                override fun onAnalyzerFailure(t: Throwable): Boolean { fail(t.message) }
+                override fun onResultFailure(t: Throwable): Boolean { fail(t.message) }
+            },
+            resultHandler = TestResultHandler(),
+            similarityCache = FrameSimilarityCache(
+                fingerprint = { fingerprintCount.incrementAndGet(); 0L },
+                policy = SimilarFramePolicy.SKIP_FRAME,
+                appliesTo = { it == 0 }
+            )
+        )
+
+        val channel = Channel<Int>(Channel.RENDEZVOUS)
+        val job = loop.subscribeTo(channel.receiveAsFlow(), this)
+        assertNotNull(job)
+
+        while (!job.isCompleted) {
+            channel.offer(1)
+            yield()
+        }
+
+        assertTrue { resultCount.get() >= expectedResultCount }
+        assertEquals(0, fingerprintCount.get())
+    }
+
     @Test(timeout = 1000)
     @SmallTest
     @ExperimentalCoroutinesApi
@@ -286,6 +429,219 @@ class LoopTest {
         assertTrue { dataProcessed }
     }
 
+    @Test(timeout = 2000)
+    @MediumTest
+    fun processBoundAnalyzerLoop_parkedWorkerDoesNotAnalyze() = runBlocking {
+        val analyzedFrames = List(2) { AtomicInteger(0) }
+        val analyzerPool = AnalyzerPool(
+            desiredAnalyzerCount = 2,
+            analyzers = analyzedFrames.map { count ->
+                object : Analyzer<Int, Int, Int> {
+                    override suspend fun analyze(data: Int, state: Int): Int = data.also { count.incrementAndGet() }
+                }
+            }
+        )
+
+        val controller = AdaptiveWorkerController(initialWorkers = 2, framesPerMeasurement = 1000)
+        val loop = ProcessBoundAnalyzerLoop(
+            analyzerPool = analyzerPool,
+            analyzerLoopErrorListener = object : AnalyzerLoopErrorListener {
+                override fun onAnalyzerFailure(t: Throwable): Boolean { fail(t.message) }
+                override fun onResultFailure(t: Throwable): Boolean { fail(t.message) }
+            },
+            resultHandler = object : StatefulResultHandler<Int, Int, Int, Boolean>(0) {
+                override suspend fun onResult(result: Int, data: Int): Boolean = false
+            },
+            workerController = controller
+        )
+
+        val frames = Channel<Int>()
+        val job = loop.subscribeTo(frames.receiveAsFlow(), this)
+        assertNotNull(job)
+
+        // park the second worker while both workers are waiting for a frame
+        delay(50)
+        controller.onMeasurement(10.0, 1.milliseconds)
+        assertEquals(1, controller.activeWorkers)
+
+        repeat(10) { frames.send(it) }
+        delay(50)
+
+        // the frame taken by the parked worker is handed on to the active worker
+        assertEquals(0, analyzedFrames[1].get())
+        assertEquals(10, analyzedFrames[0].get())
+        job.cancel()
+    }
+
+    @Test(timeout = 2000)
+    @MediumTest
+    fun finiteAnalyzerLoop_processBatchInInputOrder() = runBlocking {
+        val results = mutableListOf<Int>()
+        var dataProcessed = false
+
+        class TestResultHandler : TerminatingResultHandler<Int, Int, Int>(1) {
+            override suspend fun onResult(result: Int, data: Int) { results.add(result) }
+
+            override suspend fun onAllDataProcessed() { dataProcessed = true }
+
+            override suspend fun onTerminatedEarly() { fail() }
+        }
+
+        // later frames finish first
+        val analyzerPool = AnalyzerPool(
+            desiredAnalyzerCount = 4,
+            analyzers = (0 until 4).map {
+                object : Analyzer<Int, Int, Int> {
+                    override suspend fun analyze(data: Int, state: Int): Int {
+                        delay(5L * (10 - data))
+                        return data
+                    }
+                }
+            }
+        )
+
+        val loop = FiniteAnalyzerLoop(
+            analyzerPool = analyzerPool,
+            analyzerLoopErrorListener = object : AnalyzerLoopErrorListener {
+                override fun onAnalyzerFailure(t: Throwable): Boolean { fail(t.message) }
+                override fun onResultFailure(t: Throwable): Boolean { fail(t.message) }
+            },
+            resultHandler = TestResultHandler()
+        )
+
+        val job = loop.processBatch((0 until 10).toList(), this, ResultOrder.INPUT)
+        assertNotNull(job)
+        job.join()
+
+        assertTrue(dataProcessed)
+        assertEquals((0 until 10).toList(), results)
+    }
+
+    @Test(timeout = 2000)
+    @MediumTest
+    fun finiteAnalyzerLoop_processBatchInCompletionOrder() = runBlocking {
+        val resultCount = AtomicInteger(0)
+        var dataProcessed = false
+
+        class TestResultHandler : TerminatingResultHandler<Int, Int, String>(1) {
+            override suspend fun onResult(result: String, data: Int) { resultCount.incrementAndGet() }
+
+            override suspend fun onAllDataProcessed() { dataProcessed = true }
+
+            override suspend fun onTerminatedEarly() { fail() }
+        }
+
+        val analyzerPool = AnalyzerPoolFactory(
+            analyzerFactory = TestAnalyzerFactory(),
+            desiredAnalyzerCount = 12
+        ).buildAnalyzerPool()
+
+        val loop = FiniteAnalyzerLoop(
+            analyzerPool = analyzerPool,
+            analyzerLoopErrorListener = object : AnalyzerLoopErrorListener {
+                override fun onAnalyzerFailure(t: Throwable): Boolean { fail(t.message) }
+                override fun onResultFailure(t: Throwable): Boolean { fail(t.message) }
+            },
+            resultHandler = TestResultHandler()
+        )
+
+        val job = loop.processBatch((0 until 100).toList(), this)
+        assertNotNull(job)
+        job.join()
+
+        assertTrue(dataProcessed)
+        assertEquals(100, resultCount.get())
+    }
+
+    @Test(timeout = 2000)
+    @MediumTest
+    fun finiteAnalyzerLoop_processBatchTimeLimit() = runBlocking {
+        var terminatedEarly = false
+
+        class TestResultHandler : TerminatingResultHandler<Int, Int, Int>(1) {
+            override suspend fun onResult(result: Int, data: Int) { fail() }
+
+            override suspend fun onAllDataProcessed() { fail() }
+
+            override suspend fun onTerminatedEarly() { terminatedEarly = true }
+        }
+
+        // the analyzer never finishes, so the time limit must be enforced without waiting for a result
+        val analyzerPool = AnalyzerPool(
+            desiredAnalyzerCount = 1,
+            analyzers = listOf(
+                object : Analyzer<Int, Int, Int> {
+                    override suspend fun analyze(data: Int, state: Int): Int {
+                        delay(Long.MAX_VALUE)
+                        return data
+                    }
+                }
+            )
+        )
+
+        val loop = FiniteAnalyzerLoop(
+            analyzerPool = analyzerPool,
+            analyzerLoopErrorListener = object : AnalyzerLoopErrorListener {
+                override fun onAnalyzerFailure(t: Throwable): Boolean { fail(t.message) }
+                override fun onResultFailure(t: Throwable): Boolean { fail(t.message) }
+            },
+            resultHandler = TestResultHandler(),
+            timeLimit = 50.milliseconds
+        )
+
+        val job = loop.processBatch(listOf(1, 2, 3), this)
+        assertNotNull(job)
+        job.join()
+
+        assertTrue(terminatedEarly)
+    }
+
+    @Test(timeout = 2000)
+    @MediumTest
+    fun finiteAnalyzerLoop_processBatchTerminatedByErrorListener() = runBlocking {
+        var terminatedEarly = false
+
+        class TestResultHandler : TerminatingResultHandler<Int, Int, Int>(1) {
+            override suspend fun onResult(result: Int, data: Int) { }
+
+            override suspend fun onAllDataProcessed() { fail() }
+
+            override suspend fun onTerminatedEarly() { terminatedEarly = true }
+        }
+
+        val analyzerPool = AnalyzerPool(
+            desiredAnalyzerCount = 1,
+            analyzers = listOf(
+                object : Analyzer<Int, Int, Int> {
+                    override suspend fun analyze(data: Int, state: Int): Int = throw IllegalStateException("failed")
+                }
+            )
+        )
+
+        val loop = FiniteAnalyzerLoop(
+            analyzerPool = analyzerPool,
+            analyzerLoopErrorListener = object : AnalyzerLoopErrorListener {
+                override fun onAnalyzerFailure(t: Throwable): Boolean = true
+                override fun onResultFailure(t: Throwable): Boolean { fail(t.message) }
+            },
+            resultHandler = TestResultHandler(),
+            timeLimit = 10.minutes
+        )
+
+        // the error listener is called on the main thread
+        Dispatchers.setMain(TestCoroutineDispatcher())
+        try {
+            val job = loop.processBatch(listOf(1, 2, 3), this)
+            assertNotNull(job)
+            job.join()
+        } finally {
+            Dispatchers.resetMain()
+        }
+
+        // the handler is told that processing terminated instead of waiting forever for a callback
+        assertTrue(terminatedEarly)
+    }
+
     private class TestAnalyzer : Analyzer<Int, Int, String> {
         companion object {
             private val analyzerCounter = AtomicInteger(0)
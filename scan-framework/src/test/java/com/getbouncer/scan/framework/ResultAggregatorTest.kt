@@ -0,0 +1,181 @@
+package com.getbouncer.scan.framework
+
+import androidx.test.filters.SmallTest
+import com.getbouncer.scan.framework.time.Duration
+import com.getbouncer.scan.framework.time.seconds
+import kotlinx.coroutines.CompletableDeferred
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.async
+import kotlinx.coroutines.awaitAll
+import kotlinx.coroutines.channels.Channel
+import kotlinx.coroutines.runBlocking
+import kotlinx.coroutines.withTimeout
+import org.junit.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertFailsWith
+import kotlin.test.assertFalse
+import kotlin.test.assertTrue
+
+class ResultAggregatorTest {
+
+    private class TestListener : AggregateResultListener<List<Int>, List<Int>> {
+        val interimResults = Channel<List<Int>>(Channel.UNLIMITED)
+        val finalResult = CompletableDeferred<List<Int>>()
+        val reset = Channel<Unit>(Channel.UNLIMITED)
+
+        override suspend fun onResult(result: List<Int>) { finalResult.complete(result) }
+        override suspend fun onInterimResult(result: List<Int>) { interimResults.send(result) }
+        override suspend fun onReset() { reset.send(Unit) }
+    }
+
+    /**
+     * Collect results until [finalCount] results have been collected. The state is an immutable list so that any
+     * update from outside the aggregation coroutine would lose results.
+     */
+    private class TestAggregator(
+        listener: TestListener,
+        private val finalCount: Int,
+        interimResultInterval: Duration? = null
+    ) : ResultAggregator<Int, List<Int>, Int, List<Int>, List<Int>>(listener, emptyList(), interimResultInterval) {
+        var aggregationThread: Thread? = null
+
+        fun clear() = reset()
+
+        override suspend fun aggregateResult(frame: Int, result: Int): Pair<List<Int>, List<Int>?> {
+            require(result >= 0) { "Negative results are not allowed" }
+
+            val current = Thread.currentThread()
+            check(aggregationThread == null || aggregationThread == current) { "Aggregation moved threads" }
+            aggregationThread = current
+
+            state = state + result
+            return state to if (state.size >= finalCount) state else null
+        }
+    }
+
+    @Test(timeout = 2000)
+    @SmallTest
+    fun onResult_aggregatesInOrderOnOneThread() = runBlocking {
+        val listener = TestListener()
+        val aggregator = TestAggregator(listener, finalCount = 3)
+
+        // results are posted without waiting for them to be aggregated
+        assertFalse(aggregator.onResult(1, 1))
+        assertFalse(aggregator.onResult(2, 2))
+        assertFalse(aggregator.onResult(3, 3))
+
+        assertEquals(listOf(1, 2, 3), withTimeout(1000) { listener.finalResult.await() })
+        assertEquals(listOf(1), listener.interimResults.receive())
+        assertEquals(listOf(1, 2), listener.interimResults.receive())
+        assertEquals(listOf(1, 2, 3), listener.interimResults.receive())
+        assertEquals(listOf(1, 2, 3), aggregator.state)
+
+        // the loop is told to stop by the first result posted after the final result
+        assertTrue(aggregator.onResult(4, 4))
+        assertEquals(listOf(1, 2, 3), aggregator.state)
+    }
+
+    @Test(timeout = 2000)
+    @SmallTest
+    fun onResult_concurrentResultsStopAtFinalResult() = runBlocking {
+        val listener = TestListener()
+        val aggregator = TestAggregator(listener, finalCount = 5)
+
+        (1..20).map { async(Dispatchers.Default) { aggregator.onResult(it, it) } }.awaitAll()
+
+        // results posted after the final result are ignored
+        assertEquals(5, listener.finalResult.await().size)
+        assertEquals(5, aggregator.state.size)
+        assertTrue(aggregator.onResult(21, 21))
+    }
+
+    @Test(timeout = 2000)
+    @SmallTest
+    fun reset_clearsStateAfterPostedResults() = runBlocking {
+        val listener = TestListener()
+        val aggregator = TestAggregator(listener, finalCount = 10)
+
+        aggregator.onResult(1, 1)
+        aggregator.onResult(2, 2)
+        aggregator.clear()
+        listener.reset.receive()
+
+        assertEquals(2, listOf(listener.interimResults.receive(), listener.interimResults.receive()).size)
+        assertEquals(emptyList(), aggregator.state)
+
+        aggregator.onResult(3, 3)
+        assertEquals(listOf(3), listener.interimResults.receive())
+    }
+
+    @Test(timeout = 2000)
+    @SmallTest
+    fun cancel_beforeAnyResults() {
+        val listener = TestListener()
+        val aggregator = TestAggregator(listener, finalCount = 10)
+
+        aggregator.cancel()
+
+        assertTrue(runBlocking { aggregator.onResult(1, 1) })
+        assertTrue(listener.interimResults.isEmpty)
+    }
+
+    @Test(timeout = 2000)
+    @SmallTest
+    fun cancel_ignoresResults() = runBlocking {
+        val listener = TestListener()
+        val aggregator = TestAggregator(listener, finalCount = 10)
+
+        aggregator.onResult(1, 1)
+        assertEquals(listOf(1), listener.interimResults.receive())
+        aggregator.cancel()
+
+        // a canceled aggregator cannot be reset
+        aggregator.clear()
+        assertTrue(aggregator.onResult(2, 2))
+        assertTrue(listener.interimResults.isEmpty)
+        assertTrue(listener.reset.isEmpty)
+        assertEquals(listOf(1), aggregator.state)
+    }
+
+    @Test(timeout = 2000)
+    @SmallTest
+    fun onResult_reportsAggregationFailure() = runBlocking<Unit> {
+        val listener = TestListener()
+        val aggregator = TestAggregator(listener, finalCount = 10)
+
+        assertFalse(aggregator.onResult(-1, -1))
+
+        // the reset is queued behind the failing result, so the failure has happened once the reset is delivered
+        aggregator.clear()
+        listener.reset.receive()
+
+        // the failure is reported to the next analyzer to post a result
+        assertFailsWith<IllegalArgumentException> { aggregator.onResult(1, 1) }
+
+        // the aggregator keeps aggregating later results
+        assertFalse(aggregator.onResult(2, 2))
+        assertEquals(listOf(2), listener.interimResults.receive())
+    }
+
+    @Test(timeout = 5000)
+    @SmallTest
+    fun onResult_conflatesInterimResults() = runBlocking {
+        val listener = TestListener()
+        val aggregator = TestAggregator(listener, finalCount = 6, interimResultInterval = 1.seconds)
+
+        aggregator.onResult(1, 1)
+        assertEquals(listOf(1), listener.interimResults.receive())
+
+        // interim results are conflated until the interval passes
+        for (result in 2..5) {
+            aggregator.onResult(result, result)
+        }
+        assertEquals(listOf(1, 2, 3, 4, 5), listener.interimResults.receive())
+
+        // the interim result for the final frame is delivered with the final result without waiting
+        aggregator.onResult(6, 6)
+        assertEquals(listOf(1, 2, 3, 4, 5, 6), withTimeout(500) { listener.interimResults.receive() })
+        assertEquals(listOf(1, 2, 3, 4, 5, 6), listener.finalResult.await())
+        assertTrue(listener.interimResults.isEmpty)
+    }
+}
@@ -0,0 +1,34 @@
+package com.getbouncer.scan.framework
+
+import androidx.test.filters.SmallTest
+import org.junit.Test
+import kotlin.test.assertEquals
+
+class ScanDispatchersTest {
+
+    @Test
+    @SmallTest
+    fun inferenceParallelism_reservesCores() {
+        assertEquals(7, inferenceParallelism(cores = 8, threadsPerInterpreter = 1))
+        assertEquals(3, inferenceParallelism(cores = 8, threadsPerInterpreter = 2))
+        assertEquals(1, inferenceParallelism(cores = 4, threadsPerInterpreter = 3))
+    }
+
+    @Test
+    @SmallTest
+    fun inferenceParallelism_alwaysAllowsOneInference() {
+        assertEquals(1, inferenceParallelism(cores = 1, threadsPerInterpreter = 1))
+        assertEquals(1, inferenceParallelism(cores = 2, threadsPerInterpreter = 4))
+        assertEquals(3, inferenceParallelism(cores = 4, threadsPerInterpreter = 0))
+    }
+
+    @Test
+    @SmallTest
+    fun configureInterpreterThreads_onlyFirstCallTakesEffect() {
+        val threads = ScanDispatchers.configureInterpreterThreads(2)
+
+        // a later scan cannot resize the dispatcher, and is told which setting is in effect
+        assertEquals(threads, ScanDispatchers.configureInterpreterThreads(threads + 1))
+        assertEquals(threads, ScanDispatchers.interpreterThreads)
+    }
+}
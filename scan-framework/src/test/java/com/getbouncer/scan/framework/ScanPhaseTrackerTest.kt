@@ -0,0 +1,91 @@
+package com.getbouncer.scan.framework
+
+import androidx.test.filters.SmallTest
+import com.getbouncer.scan.framework.time.Clock
+import com.getbouncer.scan.framework.time.asEpochMillisecondsClockMark
+import com.getbouncer.scan.framework.time.milliseconds
+import kotlinx.coroutines.ExperimentalCoroutinesApi
+import kotlinx.coroutines.test.runBlockingTest
+import org.junit.Before
+import org.junit.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertFalse
+import kotlin.test.assertNotNull
+import kotlin.test.assertTrue
+
+class ScanPhaseTrackerTest {
+
+    @Before
+    @ExperimentalCoroutinesApi
+    fun before() = runBlockingTest {
+        Stats.resetStats()
+    }
+
+    @Test
+    @SmallTest
+    @ExperimentalCoroutinesApi
+    fun trackFrame_recordsPhasesOnTransition() = runBlockingTest {
+        val tracker = ScanPhaseTracker()
+
+        tracker.trackFrame("a", "a", Clock.markNow())
+        tracker.trackFrame("a", "a", Clock.markNow())
+        assertTrue(Stats.getScanPhases().containsKey(SCAN_PHASE_FIRST_FRAME))
+        assertFalse(Stats.getScanPhases().containsKey("a"))
+
+        tracker.trackFrame("a", "b", Clock.markNow())
+        assertEquals(3, Stats.getScanPhases()["a"]?.frames)
+
+        tracker.trackFrame("b", "b", Clock.markNow())
+        tracker.finish()
+
+        assertFalse(Stats.getScanPhases().containsKey("b"))
+        assertEquals(4, Stats.getScanPhases()[SCAN_PHASE_TOTAL]?.frames)
+    }
+
+    @Test
+    @SmallTest
+    @ExperimentalCoroutinesApi
+    fun trackFrame_ignoresStalePhases() = runBlockingTest {
+        val tracker = ScanPhaseTracker()
+
+        tracker.trackFrame("a", "b", Clock.markNow())
+        val phaseA = Stats.getScanPhases()["a"]
+        assertNotNull(phaseA)
+
+        // a result from a frame that started processing before the transition
+        tracker.trackFrame("a", "b", Clock.markNow())
+        tracker.trackFrame("b", "c", Clock.markNow())
+
+        assertEquals(phaseA, Stats.getScanPhases()["a"])
+        assertEquals(2, Stats.getScanPhases()["b"]?.frames)
+    }
+
+    @Test
+    @SmallTest
+    @ExperimentalCoroutinesApi
+    fun finish_ignoresLaterFrames() = runBlockingTest {
+        val tracker = ScanPhaseTracker()
+
+        tracker.trackFrame("a", "a", Clock.markNow())
+        tracker.finish()
+        tracker.trackFrame("a", "b", Clock.markNow())
+        tracker.finish()
+
+        assertFalse(Stats.getScanPhases().containsKey("a"))
+        assertEquals(1, Stats.getScanPhases()[SCAN_PHASE_TOTAL]?.frames)
+    }
+
+    @Test
+    @SmallTest
+    @ExperimentalCoroutinesApi
+    fun trackFrame_timesFirstFrameFromStart() = runBlockingTest {
+        val cameraOpenedAt = (System.currentTimeMillis() - 500).asEpochMillisecondsClockMark()
+        val tracker = ScanPhaseTracker(cameraOpenedAt)
+
+        tracker.trackFrame("a", "a", Clock.markNow())
+
+        val firstFrame = Stats.getScanPhases()[SCAN_PHASE_FIRST_FRAME]
+        assertNotNull(firstFrame)
+        assertTrue(firstFrame.duration >= 450.milliseconds, "${firstFrame.duration} is too short")
+    }
+}
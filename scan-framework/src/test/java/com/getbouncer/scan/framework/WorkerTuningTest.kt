@@ -0,0 +1,100 @@
+package com.getbouncer.scan.framework
+
+import androidx.test.filters.SmallTest
+import com.getbouncer.scan.framework.time.milliseconds
+import kotlinx.coroutines.ExperimentalCoroutinesApi
+import kotlinx.coroutines.test.runBlockingTest
+import org.junit.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertFalse
+import kotlin.test.assertTrue
+
+class WorkerTuningTest {
+
+    @Test
+    @SmallTest
+    @ExperimentalCoroutinesApi
+    fun adaptiveWorkerController_prefersFewerWorkersAtSameThroughput() = runBlockingTest {
+        var settledWorkers: Int? = null
+        val controller = AdaptiveWorkerController(
+            listener = object : WorkerCountListener {
+                override fun onWorkerCountSettled(workers: Int) { settledWorkers = workers }
+            }
+        )
+        controller.start(4)
+        assertEquals(4, controller.activeWorkers)
+
+        controller.onMeasurement(10.0, 100.milliseconds)
+        assertEquals(3, controller.activeWorkers)
+
+        controller.onMeasurement(10.0, 100.milliseconds)
+        assertEquals(2, controller.activeWorkers)
+
+        controller.onMeasurement(6.0, 100.milliseconds)
+        assertEquals(4, controller.activeWorkers)
+        assertFalse(controller.settled)
+
+        controller.onMeasurement(10.2, 100.milliseconds)
+        assertTrue(controller.settled)
+        assertEquals(3, controller.activeWorkers)
+        assertEquals(3, settledWorkers)
+    }
+
+    @Test
+    @SmallTest
+    @ExperimentalCoroutinesApi
+    fun adaptiveWorkerController_rejectsSlowConfigurations() = runBlockingTest {
+        val controller = AdaptiveWorkerController(maximumLatency = 100.milliseconds)
+        controller.start(4)
+
+        controller.onMeasurement(10.0, 200.milliseconds)
+        assertEquals(3, controller.activeWorkers)
+
+        controller.onMeasurement(8.0, 50.milliseconds)
+        assertEquals(2, controller.activeWorkers)
+
+        controller.onMeasurement(5.0, 40.milliseconds)
+        assertEquals(4, controller.activeWorkers)
+
+        controller.onMeasurement(12.0, 200.milliseconds)
+        assertTrue(controller.settled)
+        assertEquals(3, controller.activeWorkers)
+    }
+
+    @Test
+    @SmallTest
+    @ExperimentalCoroutinesApi
+    fun adaptiveWorkerController_startsFromInitialWorkers() = runBlockingTest {
+        val controller = AdaptiveWorkerController(initialWorkers = 2)
+        controller.start(4)
+        assertEquals(2, controller.activeWorkers)
+        assertTrue(controller.isWorkerActive(1))
+        assertFalse(controller.isWorkerActive(2))
+    }
+
+    @Test
+    @SmallTest
+    @ExperimentalCoroutinesApi
+    fun adaptiveWorkerController_startsSettledFromStoredWorkers() = runBlockingTest {
+        val controller = AdaptiveWorkerController(framesPerMeasurement = 1, settledWorkers = 3)
+        controller.start(4)
+        assertTrue(controller.settled)
+        assertEquals(3, controller.activeWorkers)
+
+        // a settled controller does not tune again
+        repeat(10) { controller.trackFrameProcessed(1.milliseconds) }
+        assertEquals(3, controller.activeWorkers)
+    }
+
+    @Test
+    @SmallTest
+    @ExperimentalCoroutinesApi
+    fun adaptiveWorkerController_singleWorkerSettlesImmediately() = runBlockingTest {
+        val controller = AdaptiveWorkerController()
+        controller.start(1)
+
+        controller.onMeasurement(10.0, 100.milliseconds)
+        assertTrue(controller.settled)
+        assertEquals(1, controller.activeWorkers)
+    }
+}
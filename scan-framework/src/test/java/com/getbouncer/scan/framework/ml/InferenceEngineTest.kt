@@ -0,0 +1,94 @@
+package com.getbouncer.scan.framework.ml
+
+import androidx.test.filters.SmallTest
+import com.getbouncer.scan.framework.time.Clock
+import com.getbouncer.scan.framework.time.milliseconds
+import org.junit.Test
+import java.nio.ByteBuffer
+import kotlin.test.assertEquals
+import kotlin.test.assertFailsWith
+import kotlin.test.assertTrue
+
+class InferenceEngineTest {
+
+    @Test
+    @SmallTest
+    fun replay_copiesRecordingsInOrder() {
+        val engine = ReplayInferenceEngine(
+            listOf(
+                mapOf(0 to arrayOf(floatArrayOf(1F, 2F)), 1 to intArrayOf(3)),
+                mapOf(0 to arrayOf(floatArrayOf(4F, 5F)), 1 to intArrayOf(6))
+            )
+        )
+
+        val classes = arrayOf(FloatArray(2))
+        val labels = IntArray(1)
+        engine.runForMultipleInputsOutputs(arrayOf(ByteBuffer.allocate(1)), mapOf(0 to classes, 1 to labels))
+        assertEquals(listOf(1F, 2F), classes[0].toList())
+        assertEquals(3, labels[0])
+
+        engine.runForMultipleInputsOutputs(arrayOf(ByteBuffer.allocate(1)), mapOf(0 to classes, 1 to labels))
+        assertEquals(listOf(4F, 5F), classes[0].toList())
+        assertEquals(6, labels[0])
+
+        // cycles back to the first recording
+        engine.run(ByteBuffer.allocate(1), classes)
+        assertEquals(listOf(1F, 2F), classes[0].toList())
+        assertEquals(3, engine.inferenceCount)
+    }
+
+    @Test
+    @SmallTest
+    fun replay_waitsForLatency() {
+        val engine = ReplayInferenceEngine(listOf(mapOf(0 to FloatArray(1))), latency = 20.milliseconds)
+
+        val startedAt = Clock.markNow()
+        engine.run(ByteBuffer.allocate(1), FloatArray(1))
+        assertTrue(startedAt.elapsedSince() >= 20.milliseconds)
+    }
+
+    @Test
+    @SmallTest
+    fun replay_rejectsMismatchedOutput() {
+        val engine = ReplayInferenceEngine(listOf(mapOf(0 to arrayOf(FloatArray(3)))))
+
+        assertFailsWith<IllegalArgumentException> {
+            engine.run(ByteBuffer.allocate(1), arrayOf(FloatArray(2)))
+        }
+        assertFailsWith<IllegalArgumentException> {
+            engine.run(ByteBuffer.allocate(1), arrayOf(IntArray(3)))
+        }
+    }
+
+    @Test
+    @SmallTest
+    fun replay_resizesInputs() {
+        val engine = ReplayInferenceEngine(listOf(mapOf(0 to FloatArray(1))), inputShapes = mapOf(0 to intArrayOf(1, 4)))
+
+        engine.resizeInput(0, intArrayOf(3, 4))
+        assertEquals(listOf(3, 4), engine.getInputShape(0).toList())
+    }
+
+    @Test
+    @SmallTest
+    fun recording_replaysRecordedOutput() {
+        val recorder = RecordingInferenceEngine(
+            ReplayInferenceEngine(listOf(mapOf(0 to arrayOf(floatArrayOf(7F, 8F)), 1 to ByteBuffer.wrap(byteArrayOf(9)))))
+        )
+
+        val classes = arrayOf(FloatArray(2))
+        val buffer = ByteBuffer.allocate(1)
+        recorder.runForMultipleInputsOutputs(arrayOf(ByteBuffer.allocate(1)), mapOf(0 to classes, 1 to buffer))
+
+        // later changes to the output must not change the recording
+        classes[0][0] = 0F
+        buffer.put(0, 0)
+
+        val replayed = arrayOf(FloatArray(2))
+        val replayedBuffer = ByteBuffer.allocate(1)
+        ReplayInferenceEngine(recorder.recordings)
+            .runForMultipleInputsOutputs(arrayOf(ByteBuffer.allocate(1)), mapOf(0 to replayed, 1 to replayedBuffer))
+        assertEquals(listOf(7F, 8F), replayed[0].toList())
+        assertEquals(9.toByte(), replayedBuffer.get(0))
+    }
+}
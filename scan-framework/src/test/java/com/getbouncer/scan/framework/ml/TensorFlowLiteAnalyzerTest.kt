@@ -0,0 +1,107 @@
+package com.getbouncer.scan.framework.ml
+
+import androidx.test.filters.SmallTest
+import com.getbouncer.scan.framework.time.milliseconds
+import kotlinx.coroutines.CompletableDeferred
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.async
+import kotlinx.coroutines.runBlocking
+import org.junit.Test
+import java.nio.ByteBuffer
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.atomic.AtomicInteger
+import kotlin.test.assertEquals
+import kotlin.test.assertTrue
+
+class TensorFlowLiteAnalyzerTest {
+
+    private class TestAnalyzer(
+        inferenceEngine: InferenceEngine,
+        private val transformStarted: CompletableDeferred<Unit>? = null,
+        private val transformGate: CountDownLatch? = null
+    ) : TensorFlowLiteAnalyzer<Int, ByteBuffer, Float, FloatArray>(inferenceEngine) {
+        val interpretCount = AtomicInteger(0)
+        val maxConcurrentInferences = AtomicInteger(0)
+        private val runningInferences = AtomicInteger(0)
+
+        override suspend fun buildEmptyMLOutput(): FloatArray = FloatArray(1)
+
+        override suspend fun interpretMLOutput(data: Int, mlOutput: FloatArray): Float {
+            interpretCount.incrementAndGet()
+            return mlOutput[0]
+        }
+
+        override suspend fun transformData(data: Int): ByteBuffer {
+            transformStarted?.complete(Unit)
+            // block without suspending, so that only the checkpoint after the transform can stop inference
+            transformGate?.await()
+            return ByteBuffer.allocate(1)
+        }
+
+        override suspend fun executeInference(inferenceEngine: InferenceEngine, data: ByteBuffer, mlOutput: FloatArray) {
+            maxConcurrentInferences.accumulateAndGet(runningInferences.incrementAndGet()) { a, b -> maxOf(a, b) }
+            inferenceEngine.run(data, mlOutput)
+            runningInferences.decrementAndGet()
+        }
+    }
+
+    @Test
+    @SmallTest
+    fun analyze_runsAllStages() = runBlocking {
+        val engine = ReplayInferenceEngine(listOf(mapOf(0 to floatArrayOf(0.5F))))
+        val analyzer = TestAnalyzer(engine)
+
+        assertEquals(0.5F, analyzer.analyze(1, Unit))
+        assertEquals(1, engine.inferenceCount)
+        assertEquals(1, analyzer.interpretCount.get())
+    }
+
+    @Test
+    @SmallTest
+    fun analyze_sharedByWorkers_queuesInference() = runBlocking {
+        val engine = ReplayInferenceEngine(listOf(mapOf(0 to floatArrayOf(0.5F))), latency = 5.milliseconds)
+        val analyzer = TestAnalyzer(engine)
+
+        val results = (0 until 4).map { async(Dispatchers.Default) { analyzer.analyze(it, Unit) } }.map { it.await() }
+
+        assertEquals(List(4) { 0.5F }, results)
+        assertEquals(4, engine.inferenceCount)
+        assertEquals(1, analyzer.maxConcurrentInferences.get())
+        assertEquals(4, analyzer.interpretCount.get())
+    }
+
+    @Test
+    @SmallTest
+    fun analyze_canceledDuringTransform_skipsInference() = runBlocking {
+        val engine = ReplayInferenceEngine(listOf(mapOf(0 to floatArrayOf(0.5F))))
+        val transformStarted = CompletableDeferred<Unit>()
+        val transformGate = CountDownLatch(1)
+        val analyzer = TestAnalyzer(engine, transformStarted, transformGate)
+
+        val result = async(Dispatchers.Default) { analyzer.analyze(1, Unit) }
+        transformStarted.await()
+        result.cancel()
+        transformGate.countDown()
+        result.join()
+
+        assertTrue(result.isCancelled)
+        assertEquals(0, engine.inferenceCount)
+        assertEquals(0, analyzer.interpretCount.get())
+    }
+
+    @Test
+    @SmallTest
+    fun analyze_canceledDuringInference_skipsInterpretation() = runBlocking {
+        val engine = ReplayInferenceEngine(listOf(mapOf(0 to floatArrayOf(0.5F))), latency = 200.milliseconds)
+        val analyzer = TestAnalyzer(engine)
+
+        val result = async(Dispatchers.Default) { analyzer.analyze(1, Unit) }
+        while (engine.inferenceCount == 0) { Thread.sleep(1) }
+        result.cancel()
+        result.join()
+
+        assertTrue(result.isCancelled)
+        assertEquals(1, engine.inferenceCount)
+        assertEquals(0, analyzer.interpretCount.get())
+    }
+}
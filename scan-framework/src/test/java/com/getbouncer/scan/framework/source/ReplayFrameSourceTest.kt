@@ -0,0 +1,65 @@
+package com.getbouncer.scan.framework.source
+
+import androidx.test.filters.SmallTest
+import com.getbouncer.scan.framework.time.milliseconds
+import kotlinx.coroutines.ExperimentalCoroutinesApi
+import kotlinx.coroutines.flow.collect
+import kotlinx.coroutines.flow.toList
+import kotlinx.coroutines.test.runBlockingTest
+import org.junit.Test
+import kotlin.math.abs
+import kotlin.test.assertEquals
+import kotlin.test.assertTrue
+
+/**
+ * Replay subtracts the real time spent consuming each frame from the wait for the next frame, so allow for that.
+ */
+private const val SCHEDULE_TOLERANCE_MILLIS = 20L
+
+class ReplayFrameSourceTest {
+
+    private val recording = listOf(
+        RecordedFrame(0, 0.milliseconds),
+        RecordedFrame(1, 100.milliseconds),
+        RecordedFrame(2, 300.milliseconds)
+    )
+
+    @Test
+    @SmallTest
+    @ExperimentalCoroutinesApi
+    fun native_replaysAtRecordedTimes() = runBlockingTest {
+        val emittedAt = mutableListOf<Long>()
+        ReplayFrameSource(ReplaySpeed.Native) { recording.asSequence() }.frames().collect { emittedAt.add(currentTime) }
+
+        assertScheduled(listOf(0L, 100L, 300L), emittedAt)
+    }
+
+    @Test
+    @SmallTest
+    @ExperimentalCoroutinesApi
+    fun fixedRate_ignoresRecordedTimes() = runBlockingTest {
+        val emittedAt = mutableListOf<Long>()
+        ReplayFrameSource(ReplaySpeed.FixedRate(20.0)) { recording.asSequence() }.frames().collect {
+            emittedAt.add(currentTime)
+        }
+
+        assertScheduled(listOf(0L, 50L, 100L), emittedAt)
+    }
+
+    @Test
+    @SmallTest
+    @ExperimentalCoroutinesApi
+    fun asFastAsPossible_doesNotWait() = runBlockingTest {
+        val frames = ReplayFrameSource(ReplaySpeed.AsFastAsPossible) { recording.asSequence() }.frames().toList()
+
+        assertEquals(listOf(0, 1, 2), frames)
+        assertEquals(0L, currentTime)
+    }
+
+    private fun assertScheduled(expected: List<Long>, actual: List<Long>) {
+        assertEquals(expected.size, actual.size)
+        expected.zip(actual).forEach { (expectedAt, actualAt) ->
+            assertTrue(abs(expectedAt - actualAt) <= SCHEDULE_TOLERANCE_MILLIS, "Expected $expected but was $actual")
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package com.getbouncer.scan.framework.util
+
+import androidx.test.filters.SmallTest
+import org.junit.Test
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.atomic.AtomicInteger
+import kotlin.concurrent.thread
+import kotlin.test.assertEquals
+
+class DerivedDataCacheTest {
+
+    @Test
+    @SmallTest
+    fun getOrPut_computesOnce() {
+        val cache = DerivedDataCache()
+        val computations = AtomicInteger(0)
+
+        assertEquals("a", cache.getOrPut("key") { computations.incrementAndGet(); "a" })
+        assertEquals("a", cache.getOrPut("key") { computations.incrementAndGet(); "b" })
+        assertEquals(1, computations.get())
+
+        assertEquals("c", cache.getOrPut("other") { computations.incrementAndGet(); "c" })
+        assertEquals(2, computations.get())
+    }
+
+    @Test
+    @SmallTest
+    fun getOrPut_computesOnceConcurrently() {
+        val cache = DerivedDataCache()
+        val computations = AtomicInteger(0)
+        val start = CountDownLatch(1)
+
+        val threads = (0 until 8).map {
+            thread {
+                start.await()
+                cache.getOrPut("key") { computations.incrementAndGet(); Thread.sleep(10); "value" }
+            }
+        }
+
+        start.countDown()
+        threads.forEach { it.join() }
+
+        assertEquals(1, computations.get())
+    }
+
+    @Test
+    @SmallTest
+    fun clear_releasesValues() {
+        val cache = DerivedDataCache()
+        val computations = AtomicInteger(0)
+
+        cache.getOrPut("key") { computations.incrementAndGet() }
+        cache.clear()
+        assertEquals(2, cache.getOrPut("key") { computations.incrementAndGet() })
+    }
+}
@@ -101,4 +101,61 @@ class ItemCounterTest {
 
         assertNull(itemCounter.getHighestCountItem(minCount = 3))
     }
+
+    @Test
+    @ExperimentalCoroutinesApi
+    fun totalItemsTie() = runBlockingTest {
+        val itemCounter = ItemTotalCounter("a")
+
+        assertEquals(1, itemCounter.countItem("b"))
+        assertEquals(2, itemCounter.countItem("b"))
+        assertEquals(2, itemCounter.countItem("a"))
+
+        // ties go to the item that was counted first, even if another item reached the count first
+        assertEquals(2 to "a", itemCounter.getHighestCountItem())
+
+        assertEquals(3, itemCounter.countItem("b"))
+        assertEquals(3 to "b", itemCounter.getHighestCountItem())
+    }
+
+    @Test
+    @ExperimentalCoroutinesApi
+    fun recentItemsTie() = runBlockingTest {
+        val itemCounter = ItemRecencyCounter<String>(4)
+
+        assertEquals(1, itemCounter.countItem("a")) // counter = [a]
+        assertEquals(1, itemCounter.countItem("b")) // counter = [b, a]
+        assertEquals(2, itemCounter.countItem("a")) // counter = [a, b, a]
+        assertEquals(2, itemCounter.countItem("b")) // counter = [b, a, b, a]
+        assertEquals(2 to "b", itemCounter.getHighestCountItem())
+
+        assertEquals(2, itemCounter.countItem("a")) // counter = [a, b, a, b]
+        assertEquals(2 to "a", itemCounter.getHighestCountItem())
+
+        // b leaves the window once, so a is the only item with the highest count
+        assertEquals(1, itemCounter.countItem("c")) // counter = [c, a, b, a]
+        assertEquals(2 to "a", itemCounter.getHighestCountItem())
+    }
+
+    @Test
+    @ExperimentalCoroutinesApi
+    fun recentItemsLeaveWindow() = runBlockingTest {
+        val itemCounter = ItemRecencyCounter(maxItemsToTrack = 3, firstValue = "a")
+
+        assertEquals(2, itemCounter.countItem("a")) // counter = [a, a]
+        assertEquals(1, itemCounter.countItem("b")) // counter = [b, a, a]
+        assertEquals(2 to "a", itemCounter.getHighestCountItem())
+
+        assertEquals(2, itemCounter.countItem("b")) // counter = [b, b, a]
+        assertEquals(1, itemCounter.countItem("c")) // counter = [c, b, b]
+        assertEquals(2 to "b", itemCounter.getHighestCountItem())
+
+        assertEquals(2, itemCounter.countItem("c")) // counter = [c, c, b]
+        assertEquals(1, itemCounter.countItem("d")) // counter = [d, c, c]
+        assertEquals(1, itemCounter.countItem("e")) // counter = [e, d, c]
+
+        // all items are tied, so the most recent one is returned
+        assertEquals(1 to "e", itemCounter.getHighestCountItem())
+        assertNull(itemCounter.getHighestCountItem(minCount = 2))
+    }
 }
@@ -0,0 +1,45 @@
+package com.getbouncer.scan.framework.util
+
+import androidx.test.filters.SmallTest
+import org.junit.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertFailsWith
+
+class ReorderBufferTest {
+
+    @Test
+    @SmallTest
+    fun add_releasesItemsInOrder() {
+        val buffer = ReorderBuffer<String>()
+
+        assertEquals(emptyList(), buffer.add(2, "c"))
+        assertEquals(emptyList(), buffer.add(1, "b"))
+        assertEquals(2, buffer.pendingCount)
+
+        assertEquals(listOf("a", "b", "c"), buffer.add(0, "a"))
+        assertEquals(0, buffer.pendingCount)
+
+        assertEquals(listOf("d"), buffer.add(3, "d"))
+    }
+
+    @Test
+    @SmallTest
+    fun add_skipsNullItems() {
+        val buffer = ReorderBuffer<String>()
+
+        assertEquals(emptyList(), buffer.add(2, "c"))
+        assertEquals(emptyList(), buffer.add(0, null))
+        assertEquals(listOf("c"), buffer.add(1, null))
+    }
+
+    @Test
+    @SmallTest
+    fun add_rejectsDuplicates() {
+        val buffer = ReorderBuffer<String>()
+        buffer.add(0, "a")
+        buffer.add(2, "c")
+
+        assertFailsWith<IllegalArgumentException> { buffer.add(0, "a") }
+        assertFailsWith<IllegalArgumentException> { buffer.add(2, "c") }
+    }
+}
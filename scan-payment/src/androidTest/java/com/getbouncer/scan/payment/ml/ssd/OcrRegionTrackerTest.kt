@@ -0,0 +1,90 @@
+package com.getbouncer.scan.payment.ml.ssd
+
+import android.graphics.RectF
+import androidx.test.filters.SmallTest
+import org.junit.Assert.assertEquals
+import org.junit.Test
+import kotlin.test.assertNotNull
+import kotlin.test.assertNull
+import kotlin.test.assertTrue
+
+private const val SAMPLE_VISA_PAN = "4847186095118770"
+
+class OcrRegionTrackerTest {
+
+    private fun digits(left: Float, top: Float, right: Float, bottom: Float, count: Int = 16): List<DetectionBox> {
+        val width = (right - left) / count
+        return (0 until count).map {
+            DetectionBox(RectF(left + it * width, top, left + (it + 1) * width, bottom), 0.9F, 1)
+        }
+    }
+
+    @Test
+    @SmallTest
+    fun calculateOcrRegion_keepsAspectRatioAndMargin() {
+        val region = calculateOcrRegion(listOf(RectF(0.3F, 0.5F, 0.6F, 0.55F)), margin = 1F, minimumSize = 0.2F)
+        assertNotNull(region)
+
+        assertEquals(region.width(), region.height(), 0.0001F)
+        assertEquals(0.4F, region.width(), 0.0001F)
+        assertEquals(0.45F, region.centerX(), 0.0001F)
+        assertEquals(0.525F, region.centerY(), 0.0001F)
+    }
+
+    @Test
+    @SmallTest
+    fun calculateOcrRegion_realisticPanIsSmallerThanCardCrop() {
+        // an embossed 16 digit PAN spans most of the width of the card, just below its center
+        val digits = digits(0.08F, 0.55F, 0.9F, 0.64F).map { it.rect }
+        val region = calculateOcrRegion(digits, margin = 0.5F, minimumSize = 0.5F)
+        assertNotNull(region)
+
+        assertEquals(0.91F, region.width(), 0.0001F)
+        assertEquals(region.width(), region.height(), 0.0001F)
+        assertTrue(digits.all { region.contains(it) })
+    }
+
+    @Test
+    @SmallTest
+    fun calculateOcrRegion_staysWithinCardCrop() {
+        val region = calculateOcrRegion(listOf(RectF(0.7F, 0.85F, 0.95F, 0.95F)), margin = 1F, minimumSize = 0.5F)
+        assertNotNull(region)
+
+        assertEquals(0.5F, region.width(), 0.0001F)
+        assertEquals(1F, region.right, 0.0001F)
+        assertEquals(1F, region.bottom, 0.0001F)
+    }
+
+    @Test
+    @SmallTest
+    fun calculateOcrRegion_noDigits() {
+        assertNull(calculateOcrRegion(emptyList(), margin = 1F, minimumSize = 0.5F))
+    }
+
+    @Test
+    @SmallTest
+    fun fromRegion_mapsToCardCrop() {
+        val mapped = RectF(0.5F, 0.5F, 1F, 1F).fromRegion(RectF(0.2F, 0.4F, 0.6F, 0.8F))
+
+        assertEquals(0.4F, mapped.left, 0.0001F)
+        assertEquals(0.6F, mapped.top, 0.0001F)
+        assertEquals(0.6F, mapped.right, 0.0001F)
+        assertEquals(0.8F, mapped.bottom, 0.0001F)
+    }
+
+    @Test
+    @SmallTest
+    fun tracker_fallsBackAfterMisses() {
+        val tracker = OcrRegionTracker(maximumMisses = 2)
+        assertNull(tracker.getRegion())
+
+        tracker.update(SAMPLE_VISA_PAN, digits(0.3F, 0.5F, 0.6F, 0.55F))
+        assertNotNull(tracker.getRegion())
+
+        tracker.update("1234", digits(0.3F, 0.5F, 0.6F, 0.55F, count = 4))
+        assertNotNull(tracker.getRegion())
+
+        tracker.update(null, emptyList())
+        assertNull(tracker.getRegion())
+    }
+}
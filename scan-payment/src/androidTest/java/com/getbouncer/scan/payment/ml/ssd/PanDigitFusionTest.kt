@@ -0,0 +1,96 @@
+package com.getbouncer.scan.payment.ml.ssd
+
+import android.graphics.RectF
+import androidx.test.filters.SmallTest
+import org.junit.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertNull
+
+private const val SAMPLE_VISA_PAN = "4847186095118770"
+
+class PanDigitFusionTest {
+
+    private fun digits(pan: String, confidence: Float = 0.9F): List<DetectionBox> = pan.mapIndexed { index, digit ->
+        DetectionBox(RectF(index * 0.05F, 0.5F, (index + 1) * 0.05F, 0.55F), confidence, digit - '0')
+    }
+
+    private fun misread(pan: String, position: Int): String =
+        pan.substring(0, position) + ((pan[position] - '0' + 1) % 10) + pan.substring(position + 1)
+
+    @Test
+    @SmallTest
+    fun add_fusesMisreadDigits() {
+        val fusion = PanDigitFusion()
+
+        // no two frames read the same PAN, but every position agrees across frames
+        assertNull(fusion.add(digits(misread(SAMPLE_VISA_PAN, 3))))
+        assertNull(fusion.add(digits(misread(SAMPLE_VISA_PAN, 9))))
+        assertNull(fusion.add(digits(misread(SAMPLE_VISA_PAN, 14))))
+        fusion.add(digits(misread(SAMPLE_VISA_PAN, 0)))
+        assertEquals(SAMPLE_VISA_PAN, fusion.add(digits(misread(SAMPLE_VISA_PAN, 5))))
+        assertEquals(SAMPLE_VISA_PAN, fusion.getFusedPan())
+    }
+
+    @Test
+    @SmallTest
+    fun add_fusesQuickReadLayout() {
+        val fusion = PanDigitFusion()
+
+        // a quick read card prints the PAN in four rows of four digits, so the digits in each column line up
+        val quickReadDigits = SAMPLE_VISA_PAN.mapIndexed { index, digit ->
+            val row = index / 4
+            val column = index % 4
+            DetectionBox(RectF(column * 0.1F, row * 0.1F, column * 0.1F + 0.05F, row * 0.1F + 0.05F), 0.9F, digit - '0')
+        }
+
+        repeat(3) {
+            fusion.add(determineLayoutAndFilter(quickReadDigits.sortedBy { it.rect.left }, verticalOffset = 2.0F))
+        }
+        assertEquals(SAMPLE_VISA_PAN, fusion.getFusedPan())
+    }
+
+    @Test
+    @SmallTest
+    fun add_requiresAgreement() {
+        val fusion = PanDigitFusion()
+
+        repeat(3) {
+            fusion.add(digits(SAMPLE_VISA_PAN))
+            fusion.add(digits(misread(SAMPLE_VISA_PAN, 5)))
+        }
+        assertNull(fusion.getFusedPan())
+    }
+
+    @Test
+    @SmallTest
+    fun add_requiresValidPan() {
+        val fusion = PanDigitFusion()
+
+        repeat(5) { fusion.add(digits("4847186095118771")) }
+        assertNull(fusion.getFusedPan())
+    }
+
+    @Test
+    @SmallTest
+    fun add_ignoresFramesOfOtherLengths() {
+        val fusion = PanDigitFusion()
+
+        repeat(5) { fusion.add(digits(SAMPLE_VISA_PAN.take(8))) }
+        repeat(2) { fusion.add(digits(SAMPLE_VISA_PAN)) }
+        fusion.add(digits(SAMPLE_VISA_PAN.drop(1)))
+        assertNull(fusion.getFusedPan())
+
+        fusion.add(digits(SAMPLE_VISA_PAN))
+        assertEquals(SAMPLE_VISA_PAN, fusion.getFusedPan())
+    }
+
+    @Test
+    @SmallTest
+    fun reset_forgetsDigits() {
+        val fusion = PanDigitFusion()
+
+        repeat(2) { fusion.add(digits(SAMPLE_VISA_PAN)) }
+        fusion.reset()
+        assertNull(fusion.add(digits(SAMPLE_VISA_PAN)))
+    }
+}
@@ -41,21 +41,36 @@ fun Bitmap.toRGBByteBuffer(mean: Float = 0F, std: Float = 255F): ByteBuffer = th
  */
 @CheckResult
 fun Bitmap.toRGBByteBuffer(mean: ImageTransformValues, std: ImageTransformValues): ByteBuffer {
-    val argb = IntArray(width * height).also { getPixels(it, 0, width, 0, 0, width, height) }
-
     val rgbFloat =
         ByteBuffer.allocateDirect(this.width * this.height * DIM_PIXEL_SIZE * NUM_BYTES_PER_CHANNEL)
     rgbFloat.order(ByteOrder.nativeOrder())
+    writeRGBTo(rgbFloat, mean, std)
+    rgbFloat.rewind()
+    return rgbFloat
+}
+
+/**
+ * Write a bitmap as RGB floats into [buffer] at its current position. This allows several images to be written into
+ * a single batched input for TensorFlow Lite ML models.
+ */
+fun Bitmap.writeRGBTo(buffer: ByteBuffer, mean: Float = 0F, std: Float = 255F) = this.writeRGBTo(
+    buffer,
+    ImageTransformValues(mean, mean, mean),
+    ImageTransformValues(std, std, std)
+)
+
+/**
+ * Write a bitmap as RGB floats into [buffer] at its current position.
+ */
+fun Bitmap.writeRGBTo(buffer: ByteBuffer, mean: ImageTransformValues, std: ImageTransformValues) {
+    val argb = IntArray(width * height).also { getPixels(it, 0, width, 0, 0, width, height) }
 
     argb.forEach {
         // ignore the alpha value ((it shr 24 and 0xFF) - mean.alpha) / std.alpha)
-        rgbFloat.putFloat(((it shr 16 and 0xFF) - mean.red) / std.red)
-        rgbFloat.putFloat(((it shr 8 and 0xFF) - mean.green) / std.green)
-        rgbFloat.putFloat(((it and 0xFF) - mean.blue) / std.blue)
+        buffer.putFloat(((it shr 16 and 0xFF) - mean.red) / std.red)
+        buffer.putFloat(((it shr 8 and 0xFF) - mean.green) / std.green)
+        buffer.putFloat(((it and 0xFF) - mean.blue) / std.blue)
     }
-
-    rgbFloat.rewind()
-    return rgbFloat
 }
 
 /**
@@ -17,6 +17,10 @@ import com.getbouncer.scan.payment.ml.TextDetect
 import com.getbouncer.scan.payment.ml.ssd.DetectionBox
 import com.getbouncer.scan.payment.ml.ssd.cropImageForObjectDetect
 import com.getbouncer.scan.payment.size
+import kotlinx.coroutines.async
+import kotlinx.coroutines.awaitAll
+import kotlinx.coroutines.coroutineScope
+import kotlinx.coroutines.yield
 import kotlin.math.max
 import kotlin.math.min
 
@@ -32,6 +36,14 @@ private const val NAME_BOX_Y_SCALE_RATIO = 1.4F
 private const val EXPIRY_BOX_X_SCALE_RATIO = 1.1F
 private const val EXPIRY_BOX_Y_SCALE_RATIO = 1.2F
 
+/**
+ * Extract the cardholder name and expiry date from a card. After text detection, the expiry candidates and the name
+ * boxes are analyzed concurrently.
+ *
+ * Each sub-analyzer owns exactly one interpreter, and is owned by this analyzer. Concurrent calls to a sub-analyzer are
+ * safe because [com.getbouncer.scan.framework.ml.TensorFlowLiteAnalyzer] serializes inference on its interpreter, so
+ * only the data preparation and interpretation of those calls overlap.
+ */
 class NameAndExpiryAnalyzer<State : NameAndExpiryAnalyzer.State> private constructor(
     private val textDetect: TextDetect?,
     private val alphabetDetect: AlphabetDetect?,
@@ -58,60 +70,67 @@ class NameAndExpiryAnalyzer<State : NameAndExpiryAnalyzer.State> private constru
         state: State
     ) = if ((!state.runNameExtraction && !state.runExpiryExtraction) || textDetect == null) {
         Prediction(null, null, null)
-    } else {
+    } else coroutineScope {
         val objDetectBitmap = cropImageForObjectDetect(
             data.fullImage,
             data.previewSize,
-            data.cardFinder
+            data.cardFinder,
+            data.derivedImages
         )
 
         val textDetectorPrediction = textDetect.analyze(
             TextDetect.Input(
                 data.fullImage,
                 data.previewSize,
-                data.cardFinder
+                data.cardFinder,
+                data.derivedImages
             ),
             Unit
         )
 
-        val expiry = if (state.runExpiryExtraction && textDetectorPrediction.expiryBoxes.isNotEmpty()) {
-            // pick the expiry box by oldest date
-            // the boxes produced by textDetector are sometimes too tight, especially in the Y
-            // direction. Scale it out a bit
-            textDetectorPrediction.expiryBoxes.mapNotNull { box ->
+        val expiryDeferred = if (state.runExpiryExtraction && textDetectorPrediction.expiryBoxes.isNotEmpty()) {
+            // all expiry boxes are analyzed in a single batch, and the latest date is picked
+            async {
                 expiryDetect?.analyze(
                     ExpiryDetect.Input(
                         objDetectBitmap,
                         // the boxes produced by textDetector are sometimes too tight, especially in the Y
                         // direction. Scale it out a bit
-                        box.rect.centerScaled(
-                            EXPIRY_BOX_X_SCALE_RATIO,
-                            EXPIRY_BOX_Y_SCALE_RATIO
-                        )
+                        textDetectorPrediction.expiryBoxes.map { box ->
+                            box.rect.centerScaled(
+                                EXPIRY_BOX_X_SCALE_RATIO,
+                                EXPIRY_BOX_Y_SCALE_RATIO
+                            )
+                        }
                     ),
                     Unit
                 )?.expiry
-            }.maxOrNull()
+            }
         } else {
             null
         }
 
-        val name = if (state.runNameExtraction) {
-            textDetectorPrediction.nameBoxes.mapNotNull { box ->
-                // the boxes produced by textDetector are sometimes too tight, especially in the Y
-                // direction. Scale it out a bit
-                processNamePredictions(
-                    box.rect.centerScaled(
-                        NAME_BOX_X_SCALE_RATIO,
-                        NAME_BOX_Y_SCALE_RATIO
-                    ),
-                    objDetectBitmap
-                )?.filter { it != ' ' }
-            }.joinToString(" ").trim().ifEmpty { null }
+        val nameDeferred = if (state.runNameExtraction) {
+            textDetectorPrediction.nameBoxes.map { box ->
+                async {
+                    // the boxes produced by textDetector are sometimes too tight, especially in the Y
+                    // direction. Scale it out a bit
+                    processNamePredictions(
+                        box.rect.centerScaled(
+                            NAME_BOX_X_SCALE_RATIO,
+                            NAME_BOX_Y_SCALE_RATIO
+                        ),
+                        objDetectBitmap
+                    )?.filter { it != ' ' }
+                }
+            }
         } else {
             null
         }
 
+        val expiry = expiryDeferred?.await()
+        val name = nameDeferred?.awaitAll()?.filterNotNull()?.joinToString(" ")?.trim()?.ifEmpty { null }
+
         Prediction(name, textDetectorPrediction.allObjects, expiry)
     }
 
@@ -157,6 +176,7 @@ class NameAndExpiryAnalyzer<State : NameAndExpiryAnalyzer.State> private constru
         // iterate through each stride, making a prediction per stride
         var nameX = 0
         while (nameX < nameWidth - charWidth) {
+            yield() // allow for this to be canceled
             val firstLetterBitmap = Bitmap.createBitmap(nameBitmap, nameX, 0, height, height)
             predictions.add(
                 CharPredictionWithBox(
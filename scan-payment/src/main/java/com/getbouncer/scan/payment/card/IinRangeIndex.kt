@@ -0,0 +1,80 @@
+package com.getbouncer.scan.payment.card
+
+import java.util.Arrays
+import java.util.TreeSet
+
+/**
+ * An immutable index of values by IIN range. Ranges may overlap, in which case the range that comes first in the list
+ * takes priority, as it would when searching the list in order.
+ *
+ * The ranges are compiled into sorted, non-overlapping intervals, so a lookup is a binary search that does not
+ * allocate.
+ *
+ * @param ranges: The IIN ranges and their values, in order of priority
+ */
+internal class IinRangeIndex<T>(ranges: List<Pair<IntRange, T>>) {
+    private val starts: IntArray
+    private val ends: IntArray
+    private val values: List<T>
+
+    init {
+        val indexedRanges = ranges.withIndex().filter { !it.value.first.isEmpty() }
+        val byStart = indexedRanges.sortedBy { it.value.first.first }
+        val byEnd = indexedRanges.sortedBy { it.value.first.last }
+        val boundaries = indexedRanges
+            .flatMap { listOfNotNull(it.value.first.first, it.value.first.last.nextBoundary()) }
+            .distinct()
+            .sorted()
+
+        val intervalStarts = mutableListOf<Int>()
+        val intervalEnds = mutableListOf<Int>()
+        val intervalPriorities = mutableListOf<Int>()
+
+        // sweep across the boundaries, keeping the ranges that cover each interval ordered by priority
+        val activeRanges = TreeSet<Int>()
+        var nextStart = 0
+        var nextEnd = 0
+        boundaries.forEachIndexed { boundaryIndex, boundary ->
+            while (nextEnd < byEnd.size && byEnd[nextEnd].value.first.last.nextBoundary() == boundary) {
+                activeRanges.remove(byEnd[nextEnd++].index)
+            }
+            while (nextStart < byStart.size && byStart[nextStart].value.first.first == boundary) {
+                activeRanges.add(byStart[nextStart++].index)
+            }
+
+            val priority = activeRanges.firstOrNull() ?: return@forEachIndexed
+            val end = boundaries.getOrNull(boundaryIndex + 1)?.minus(1) ?: Int.MAX_VALUE
+            if (intervalPriorities.lastOrNull() == priority && intervalEnds.last() == boundary - 1) {
+                intervalEnds[intervalEnds.lastIndex] = end
+            } else {
+                intervalStarts.add(boundary)
+                intervalEnds.add(end)
+                intervalPriorities.add(priority)
+            }
+        }
+
+        starts = intervalStarts.toIntArray()
+        ends = intervalEnds.toIntArray()
+        values = intervalPriorities.map { ranges[it].second }
+    }
+
+    /**
+     * The number of non-overlapping intervals in this index.
+     */
+    val intervalCount: Int
+        get() = starts.size
+
+    /**
+     * Get the value of the highest priority range that contains the [iin], or null if no range contains it.
+     */
+    operator fun get(iin: Int): T? {
+        val searchIndex = Arrays.binarySearch(starts, iin)
+        val interval = if (searchIndex >= 0) searchIndex else -searchIndex - 2
+        return if (interval >= 0 && iin <= ends[interval]) values[interval] else null
+    }
+
+    /**
+     * The first value after the end of a range, or null if the range extends to the largest possible value.
+     */
+    private fun Int.nextBoundary(): Int? = if (this == Int.MAX_VALUE) null else this + 1
+}
@@ -3,6 +3,7 @@ package com.getbouncer.scan.payment.card
 
 import android.content.Context
 import androidx.annotation.CheckResult
+import com.getbouncer.scan.framework.util.cacheFirstResultSuspend
 import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.withContext
 
@@ -135,6 +136,23 @@ private val ISSUER_TABLE: List<IssuerData> = listOf(
  */
 private var CUSTOM_ISSUER_TABLE: MutableList<IssuerData> = mutableListOf()
 
+/**
+ * An index of the custom and built-in issuer tables by IIN, rebuilt whenever a custom issuer is added.
+ */
+@Volatile
+private var issuerIndex: IinRangeIndex<IssuerData> = buildIssuerIndex()
+
+private fun buildIssuerIndex() = IinRangeIndex((CUSTOM_ISSUER_TABLE + ISSUER_TABLE).map { it.iinRange to it })
+
+/**
+ * An index of the card type table by IIN. The table is read from disk on the IO dispatcher, and the index is built on
+ * the default dispatcher.
+ */
+private val getTypeIndex: suspend (Context) -> IinRangeIndex<CardType> = cacheFirstResultSuspend { context: Context ->
+    val typeTable = withContext(Dispatchers.IO) { getTypeTable(context).toList() }
+    withContext(Dispatchers.Default) { IinRangeIndex(typeTable) }
+}
+
 /**
  * Get an issuer from a complete or partial card number. If the pan is null, return an unknown issuer.
  */
@@ -147,11 +165,8 @@ fun getCardIssuer(pan: String?): CardIssuer = normalizeCardNumber(pan).let { nor
  * Get the type of card from a complete or partial card number. If the pan is null, return an unknown type.
  */
 @CheckResult
-suspend fun getCardType(context: Context, pan: String?): CardType = withContext(Dispatchers.IO) {
-    normalizeCardNumber(pan).let { normalizedPan ->
-        val iin = normalizedPan.iin().toIntOrNull() ?: -1
-        getTypeTable(context).filter { it.key.contains(iin) }.values.firstOrNull() ?: CardType.Unknown
-    }
+suspend fun getCardType(context: Context, pan: String?): CardType = normalizeCardNumber(pan).let { normalizedPan ->
+    getTypeIndex(context)[iinValue(normalizedPan)] ?: CardType.Unknown
 }
 
 /**
@@ -234,8 +249,23 @@ fun String.lastFour(): String = lastFourFromPan(this)
  * Get data for a given IIN or PAN.
  */
 @CheckResult
-internal fun getIssuerData(cardNumber: String): IssuerData? =
-    (CUSTOM_ISSUER_TABLE + ISSUER_TABLE).firstOrNull { iinFromPan(cardNumber).toInt() in it.iinRange }
+internal fun getIssuerData(cardNumber: String): IssuerData? = issuerIndex[iinValue(cardNumber)]
+
+/**
+ * Get the IIN of a card number as an integer, without allocating the IIN string. A card number shorter than an IIN is
+ * padded with zeros, as in [iinFromPan].
+ */
+private fun iinValue(cardNumber: String): Int {
+    var iin = 0
+    for (index in 0 until IIN_LENGTH) {
+        val digit = if (index < cardNumber.length) Character.digit(cardNumber[index], 10) else 0
+        if (digit < 0) {
+            throw NumberFormatException("Invalid card number $cardNumber")
+        }
+        iin = iin * 10 + digit
+    }
+    return iin
+}
 
 /**
  * Get data for a given [CardIssuer].
@@ -254,13 +284,21 @@ fun supportCardIssuer(
     panLengths: List<Int>,
     cvcLengths: List<Int>,
     validationFunction: PanValidator = LengthPanValidator + LuhnPanValidator,
-) = CUSTOM_ISSUER_TABLE.add(IssuerData(iins, cardIssuer, panLengths, cvcLengths, validationFunction))
+) = synchronized(CUSTOM_ISSUER_TABLE) {
+    CUSTOM_ISSUER_TABLE.add(IssuerData(iins, cardIssuer, panLengths, cvcLengths, validationFunction)).also {
+        issuerIndex = buildIssuerIndex()
+    }
+}
 
 /**
  * Normalize a PAN by removing all non-numeric characters.
  */
 @CheckResult
-internal fun normalizeCardNumber(cardNumber: String?) = cardNumber?.filter { it.isDigit() } ?: ""
+internal fun normalizeCardNumber(cardNumber: String?) = when {
+    cardNumber == null -> ""
+    cardNumber.isDigitsOnly() -> cardNumber
+    else -> cardNumber.filter { it.isDigit() }
+}
 
 /**
  * Determine if the pan is valid or close to valid.
@@ -318,4 +356,4 @@ private fun jaccardIndex(string1: String, string2: String): Double {
 /**
  * Determine if a string is digits only without using android libraries.
  */
-private fun String.isDigitsOnly() = this.toCharArray().all { it.isDigit() }
+private fun String.isDigitsOnly() = this.all { it.isDigit() }
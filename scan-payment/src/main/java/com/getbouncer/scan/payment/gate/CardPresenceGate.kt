@@ -0,0 +1,60 @@
+package com.getbouncer.scan.payment.gate
+
+import com.getbouncer.scan.framework.FrameGate
+import com.getbouncer.scan.payment.ml.SSDOcr
+
+/**
+ * The luminance gradient above which a pixel is considered part of an edge.
+ */
+private const val DEFAULT_EDGE_THRESHOLD = 24
+
+/**
+ * Frames with a smaller fraction of edge pixels than this are considered not to contain a card.
+ */
+private const val DEFAULT_MINIMUM_EDGE_DENSITY = 0.02
+
+/**
+ * After this many frames in a row are skipped, the next frame is analyzed regardless of whether a card was found.
+ */
+private const val DEFAULT_MAXIMUM_CONSECUTIVE_SKIPS = 15
+
+/**
+ * A [FrameGate] that skips OCR on frames where no card is likely to be in the card finder. The card finder region of
+ * each frame is downscaled to a luminance thumbnail, and frames with too few edges to be a printed card are skipped.
+ * Since the card finder already has the aspect ratio of a card, a card filling it contributes edges throughout.
+ *
+ * So that an unusually plain card can still be scanned, a frame is always analyzed after [maximumConsecutiveSkips]
+ * frames in a row are skipped.
+ *
+ * @param edgeThreshold: The luminance gradient above which a pixel is part of an edge
+ * @param minimumEdgeDensity: The minimum fraction of edge pixels in a frame that contains a card
+ * @param maximumConsecutiveSkips: The maximum number of frames in a row that may be skipped
+ */
+class CardPresenceGate<State> @JvmOverloads constructor(
+    private val edgeThreshold: Int = DEFAULT_EDGE_THRESHOLD,
+    private val minimumEdgeDensity: Double = DEFAULT_MINIMUM_EDGE_DENSITY,
+    private val maximumConsecutiveSkips: Int = DEFAULT_MAXIMUM_CONSECUTIVE_SKIPS
+) : FrameGate<SSDOcr.Input, State> {
+
+    private var consecutiveSkips = 0
+
+    override suspend fun shouldAnalyze(frame: SSDOcr.Input, state: State): Boolean =
+        isCardLikely(getLuminanceThumbnail(frame))
+
+    /**
+     * Determine if a card is likely to be present given the luminance [thumbnail] of the card finder.
+     */
+    internal fun isCardLikely(thumbnail: LuminanceImage): Boolean {
+        val present = thumbnail.edgeDensity(edgeThreshold) >= minimumEdgeDensity
+
+        return synchronized(this) {
+            if (present || consecutiveSkips >= maximumConsecutiveSkips) {
+                consecutiveSkips = 0
+                true
+            } else {
+                consecutiveSkips++
+                false
+            }
+        }
+    }
+}
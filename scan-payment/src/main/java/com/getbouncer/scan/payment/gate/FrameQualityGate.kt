@@ -0,0 +1,102 @@
+package com.getbouncer.scan.payment.gate
+
+import com.getbouncer.scan.framework.FrameGate
+import com.getbouncer.scan.framework.Stats
+import com.getbouncer.scan.payment.ml.SSDOcr
+
+/**
+ * The width of the luminance thumbnail used to assess frame quality.
+ */
+private const val THUMBNAIL_WIDTH = 160
+
+/**
+ * Frames with a Laplacian variance below this are considered too blurry to read.
+ */
+private const val DEFAULT_MINIMUM_SHARPNESS = 30.0
+
+/**
+ * Frames that differ from the previous frame by more than this mean luminance are considered to be in motion.
+ */
+private const val DEFAULT_MAXIMUM_MOTION = 20.0
+
+/**
+ * After this many frames in a row are skipped, the next frame is analyzed regardless of its quality.
+ */
+private const val DEFAULT_MAXIMUM_CONSECUTIVE_SKIPS = 10
+
+/**
+ * The quality of a single frame.
+ */
+enum class FrameQuality {
+    USABLE,
+    BLURRY,
+    MOVING
+}
+
+/**
+ * A [FrameGate] that skips OCR on frames that are motion-blurred or out of focus. The card finder region of each frame
+ * is downscaled to a luminance thumbnail, which is checked for sharpness using the variance of its Laplacian and for
+ * motion using its difference from the previous frame.
+ *
+ * The defaults are conservative so that only clearly unusable frames are skipped. In case the thresholds do not suit
+ * the lighting or the camera, a frame is always analyzed after [maximumConsecutiveSkips] frames in a row are skipped.
+ *
+ * @param minimumSharpness: The minimum Laplacian variance of a usable frame
+ * @param maximumMotion: The maximum mean luminance difference from the previous frame of a usable frame
+ * @param maximumConsecutiveSkips: The maximum number of frames in a row that may be skipped
+ */
+class FrameQualityGate<State> @JvmOverloads constructor(
+    private val minimumSharpness: Double = DEFAULT_MINIMUM_SHARPNESS,
+    private val maximumMotion: Double = DEFAULT_MAXIMUM_MOTION,
+    private val maximumConsecutiveSkips: Int = DEFAULT_MAXIMUM_CONSECUTIVE_SKIPS
+) : FrameGate<SSDOcr.Input, State> {
+
+    private var previousFrame: LuminanceImage? = null
+    private var consecutiveSkips = 0
+
+    override suspend fun shouldAnalyze(frame: SSDOcr.Input, state: State): Boolean {
+        val quality = assess(getLuminanceThumbnail(frame))
+        if (quality != FrameQuality.USABLE) {
+            Stats.trackRepeatingTask("frame_quality").trackResult(quality.name.toLowerCase())
+        }
+        return quality == FrameQuality.USABLE
+    }
+
+    /**
+     * Assess the quality of a frame given its luminance [thumbnail].
+     */
+    internal fun assess(thumbnail: LuminanceImage): FrameQuality {
+        val sharpness = thumbnail.laplacianVariance()
+        val previous = synchronized(this) { previousFrame.also { previousFrame = thumbnail } }
+        val motion = if (previous != null && previous.hasSameSize(thumbnail)) {
+            thumbnail.meanAbsoluteDifference(previous)
+        } else {
+            0.0
+        }
+
+        val quality = when {
+            sharpness < minimumSharpness -> FrameQuality.BLURRY
+            motion > maximumMotion -> FrameQuality.MOVING
+            else -> FrameQuality.USABLE
+        }
+
+        return synchronized(this) {
+            if (quality == FrameQuality.USABLE || consecutiveSkips >= maximumConsecutiveSkips) {
+                consecutiveSkips = 0
+                FrameQuality.USABLE
+            } else {
+                consecutiveSkips++
+                quality
+            }
+        }
+    }
+}
+
+/**
+ * Get a luminance thumbnail of the card finder region of a frame. The thumbnail is cached in the
+ * [SSDOcr.Input.derivedImages] of the frame so that other gates can share it.
+ */
+fun getLuminanceThumbnail(frame: SSDOcr.Input): LuminanceImage =
+    frame.derivedImages.getOrPut("luminance_thumbnail") {
+        SSDOcr.cropImage(frame).toLuminanceImage(THUMBNAIL_WIDTH)
+    }
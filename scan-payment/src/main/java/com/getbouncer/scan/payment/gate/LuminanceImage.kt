@@ -0,0 +1,158 @@
+package com.getbouncer.scan.payment.gate
+
+import android.graphics.Bitmap
+import android.util.Size
+import androidx.annotation.CheckResult
+import com.getbouncer.scan.payment.scale
+import kotlin.math.abs
+import kotlin.math.max
+import kotlin.math.roundToInt
+
+/**
+ * The size of the grid used to calculate a difference hash. Each row produces one fewer bit than it has cells.
+ */
+private const val HASH_GRID_WIDTH = 9
+private const val HASH_GRID_HEIGHT = 8
+
+/**
+ * A grayscale image with one luminance value between 0 and 255 for each pixel, stored row by row.
+ */
+class LuminanceImage(val width: Int, val height: Int, val pixels: IntArray) {
+    init {
+        require(pixels.size == width * height) { "Pixel count does not match image size $width x $height" }
+    }
+
+    fun hasSameSize(other: LuminanceImage) = width == other.width && height == other.height
+}
+
+/**
+ * Calculate the luminance of an ARGB color using the Rec. 601 weights.
+ */
+fun luminance(argb: Int): Int =
+    (299 * (argb shr 16 and 0xFF) + 587 * (argb shr 8 and 0xFF) + 114 * (argb and 0xFF)) / 1000
+
+/**
+ * Convert a bitmap to a [LuminanceImage], downscaling it to [width] pixels wide while preserving its aspect ratio.
+ */
+@CheckResult
+fun Bitmap.toLuminanceImage(width: Int): LuminanceImage {
+    val scaledWidth = width.coerceAtMost(this.width)
+    val scaledHeight = max(1, (this.height * scaledWidth.toFloat() / this.width).roundToInt())
+    val scaled = scale(Size(scaledWidth, scaledHeight), filter = true)
+
+    val argb = IntArray(scaledWidth * scaledHeight)
+    scaled.getPixels(argb, 0, scaledWidth, 0, 0, scaledWidth, scaledHeight)
+    return LuminanceImage(scaledWidth, scaledHeight, IntArray(argb.size) { luminance(argb[it]) })
+}
+
+/**
+ * Calculate the variance of the Laplacian of this image. Sharp images have strong edges and a high variance, while
+ * blurred or out of focus images have a low variance.
+ */
+@CheckResult
+fun LuminanceImage.laplacianVariance(): Double {
+    if (width < 3 || height < 3) {
+        return 0.0
+    }
+
+    var sum = 0.0
+    var sumOfSquares = 0.0
+    for (y in 1 until height - 1) {
+        val row = y * width
+        for (x in 1 until width - 1) {
+            val center = row + x
+            val laplacian = 4 * pixels[center] -
+                pixels[center - 1] -
+                pixels[center + 1] -
+                pixels[center - width] -
+                pixels[center + width]
+            sum += laplacian
+            sumOfSquares += laplacian.toDouble() * laplacian
+        }
+    }
+
+    val count = (width - 2) * (height - 2)
+    val mean = sum / count
+    return sumOfSquares / count - mean * mean
+}
+
+/**
+ * Calculate the mean absolute difference in luminance between this image and [other], which must be the same size.
+ * Large differences between consecutive frames indicate that the camera or the card is moving.
+ */
+@CheckResult
+fun LuminanceImage.meanAbsoluteDifference(other: LuminanceImage): Double {
+    require(hasSameSize(other)) { "Cannot compare images of different sizes" }
+    if (pixels.isEmpty()) {
+        return 0.0
+    }
+
+    var sum = 0L
+    for (i in pixels.indices) {
+        sum += abs(pixels[i] - other.pixels[i])
+    }
+    return sum.toDouble() / pixels.size
+}
+
+/**
+ * Calculate a 64 bit difference hash of this image. The image is reduced to a 9x8 grid of average luminance, and
+ * each bit records whether a cell is darker than its neighbor to the right. Similar images have hashes that differ
+ * in only a few bits.
+ */
+@CheckResult
+fun LuminanceImage.differenceHash(): Long {
+    require(width > 0 && height > 0) { "Cannot hash an empty image" }
+
+    val grid = IntArray(HASH_GRID_WIDTH * HASH_GRID_HEIGHT)
+    for (gridY in 0 until HASH_GRID_HEIGHT) {
+        val top = gridY * height / HASH_GRID_HEIGHT
+        val bottom = max(top + 1, (gridY + 1) * height / HASH_GRID_HEIGHT)
+        for (gridX in 0 until HASH_GRID_WIDTH) {
+            val left = gridX * width / HASH_GRID_WIDTH
+            val right = max(left + 1, (gridX + 1) * width / HASH_GRID_WIDTH)
+
+            var sum = 0
+            for (y in top until bottom) {
+                for (x in left until right) {
+                    sum += pixels[y * width + x]
+                }
+            }
+            grid[gridY * HASH_GRID_WIDTH + gridX] = sum / ((bottom - top) * (right - left))
+        }
+    }
+
+    var hash = 0L
+    for (gridY in 0 until HASH_GRID_HEIGHT) {
+        for (gridX in 0 until HASH_GRID_WIDTH - 1) {
+            val cell = gridY * HASH_GRID_WIDTH + gridX
+            hash = (hash shl 1) or (if (grid[cell] < grid[cell + 1]) 1L else 0L)
+        }
+    }
+    return hash
+}
+
+/**
+ * Calculate the fraction of pixels in this image that lie on an edge, where the luminance gradient exceeds
+ * [threshold]. Printed cards have many edges from their digits, text, and artwork, while empty surfaces have few.
+ */
+@CheckResult
+fun LuminanceImage.edgeDensity(threshold: Int): Double {
+    if (width < 3 || height < 3) {
+        return 0.0
+    }
+
+    var edges = 0
+    for (y in 1 until height - 1) {
+        val row = y * width
+        for (x in 1 until width - 1) {
+            val center = row + x
+            val gradientX = pixels[center + 1] - pixels[center - 1]
+            val gradientY = pixels[center + width] - pixels[center - width]
+            if (abs(gradientX) + abs(gradientY) > threshold) {
+                edges++
+            }
+        }
+    }
+
+    return edges.toDouble() / ((width - 2) * (height - 2))
+}
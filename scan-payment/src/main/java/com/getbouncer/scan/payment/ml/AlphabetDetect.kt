@@ -3,8 +3,10 @@ package com.getbouncer.scan.payment.ml
 import android.content.Context
 import android.graphics.Bitmap
 import android.util.Size
+import androidx.annotation.RestrictTo
 import com.getbouncer.scan.framework.FetchedData
 import com.getbouncer.scan.framework.UpdatingModelWebFetcher
+import com.getbouncer.scan.framework.ml.InferenceEngine
 import com.getbouncer.scan.framework.ml.TFLAnalyzerFactory
 import com.getbouncer.scan.framework.ml.TensorFlowLiteAnalyzer
 import com.getbouncer.scan.framework.util.indexOfMax
@@ -21,10 +23,10 @@ private val TRAINED_IMAGE_SIZE = Size(48, 48)
  * model returns whether or not there is a screen present
  */
 private const val NUM_CLASS = 27
-class AlphabetDetect private constructor(interpreter: Interpreter) :
+class AlphabetDetect @RestrictTo(RestrictTo.Scope.LIBRARY_GROUP) constructor(inferenceEngine: InferenceEngine) :
     TensorFlowLiteAnalyzer<AlphabetDetect.Input, ByteBuffer,
         AlphabetDetect.Prediction,
-        Array<FloatArray>>(interpreter) {
+        Array<FloatArray>>(inferenceEngine) {
 
     data class Input(val objDetectionImage: Bitmap)
 
@@ -52,10 +54,10 @@ class AlphabetDetect private constructor(interpreter: Interpreter) :
         .toRGBByteBuffer()
 
     override suspend fun executeInference(
-        tfInterpreter: Interpreter,
+        inferenceEngine: InferenceEngine,
         data: ByteBuffer,
         mlOutput: Array<FloatArray>
-    ) = tfInterpreter.run(data, mlOutput)
+    ) = inferenceEngine.run(data, mlOutput)
 
     /**
      * A factory for creating instances of this analyzer. This downloads the model from the web. If unable to download
@@ -76,7 +78,7 @@ class AlphabetDetect private constructor(interpreter: Interpreter) :
             .setUseNNAPI(USE_GPU && hasOpenGl31(context))
             .setNumThreads(threads)
 
-        override suspend fun newInstance(): AlphabetDetect? = createInterpreter()?.let { AlphabetDetect(it) }
+        override suspend fun newInstance(): AlphabetDetect? = createInferenceEngine()?.let { AlphabetDetect(it) }
     }
 
     /**
@@ -5,8 +5,10 @@ import android.graphics.Bitmap
 import android.graphics.Rect
 import android.graphics.RectF
 import android.util.Size
+import androidx.annotation.RestrictTo
 import com.getbouncer.scan.framework.FetchedData
 import com.getbouncer.scan.framework.UpdatingModelWebFetcher
+import com.getbouncer.scan.framework.ml.InferenceEngine
 import com.getbouncer.scan.framework.ml.TFLAnalyzerFactory
 import com.getbouncer.scan.framework.ml.TensorFlowLiteAnalyzer
 import com.getbouncer.scan.framework.ml.greedyNonMaxSuppression
@@ -19,10 +21,11 @@ import com.getbouncer.scan.payment.crop
 import com.getbouncer.scan.payment.hasOpenGl31
 import com.getbouncer.scan.payment.scale
 import com.getbouncer.scan.payment.size
-import com.getbouncer.scan.payment.toRGBByteBuffer
+import com.getbouncer.scan.payment.writeRGBTo
 import org.tensorflow.lite.Interpreter
 import java.io.FileNotFoundException
 import java.nio.ByteBuffer
+import java.nio.ByteOrder
 import kotlin.math.roundToInt
 
 private val TRAINED_IMAGE_SIZE = Size(80, 36)
@@ -33,12 +36,29 @@ private const val BACKGROUND_CLASS = 10
 
 private val ASPECT_RATIO = TRAINED_IMAGE_SIZE.height.toFloat() / TRAINED_IMAGE_SIZE.width.toFloat()
 
-class ExpiryDetect private constructor(interpreter: Interpreter) :
+/**
+ * The size in bytes of a single transformed image: 3 float channels per pixel.
+ */
+private val IMAGE_BYTES = TRAINED_IMAGE_SIZE.width * TRAINED_IMAGE_SIZE.height * 3 * Float.SIZE_BYTES
+
+/**
+ * The number of expiry boxes analyzed in each batched inference. Batches are always this size so that the model input
+ * is not resized from one frame to the next.
+ */
+private const val EXPIRY_BATCH_SIZE = 2
+
+/**
+ * Read the expiry date from one or more candidate regions of a card. All regions are analyzed in a single batched
+ * inference, and the latest valid expiry found in any region is returned.
+ */
+class ExpiryDetect @RestrictTo(RestrictTo.Scope.LIBRARY_GROUP) constructor(inferenceEngine: InferenceEngine) :
     TensorFlowLiteAnalyzer<ExpiryDetect.Input, ByteBuffer,
         ExpiryDetect.Prediction,
-        Array<Array<Array<FloatArray>>>>(interpreter) {
+        MutableList<Array<Array<FloatArray>>>>(inferenceEngine) {
 
-    data class Input(val image: Bitmap, val expiryBox: RectF)
+    data class Input(val image: Bitmap, val expiryBoxes: List<RectF>) {
+        constructor(image: Bitmap, expiryBox: RectF) : this(image, listOf(expiryBox))
+    }
 
     data class Prediction(val expiry: Expiry?)
 
@@ -58,10 +78,23 @@ class ExpiryDetect private constructor(interpreter: Interpreter) :
 
     private data class Digit(val digit: Int, val confidence: Float)
 
-    override suspend fun buildEmptyMLOutput() = arrayOf(arrayOf(Array(NUM_PREDICTIONS) { FloatArray(NUM_CLASS) }))
+    /**
+     * Whether the model has rejected a batched input, in which case every box is run individually.
+     */
+    @Volatile
+    private var batchUnsupported = false
+
+    /**
+     * The output is filled with one [1][NUM_PREDICTIONS][NUM_CLASS] result per expiry box during inference, once the
+     * batch size is known.
+     */
+    override suspend fun buildEmptyMLOutput(): MutableList<Array<Array<FloatArray>>> = mutableListOf()
 
-    override suspend fun interpretMLOutput(data: Input, mlOutput: Array<Array<Array<FloatArray>>>): Prediction {
-        val output = mlOutput[0][0].mapNotNull {
+    override suspend fun interpretMLOutput(data: Input, mlOutput: MutableList<Array<Array<FloatArray>>>): Prediction =
+        Prediction(mlOutput.take(data.expiryBoxes.size).mapNotNull { interpretExpiry(it[0]) }.maxOrNull())
+
+    private fun interpretExpiry(predictions: Array<FloatArray>): Expiry? {
+        val output = predictions.mapNotNull {
             it.indexOfMax()?.let { maxIndex ->
                 Digit(maxIndex, it[maxIndex])
             }
@@ -83,18 +116,37 @@ class ExpiryDetect private constructor(interpreter: Interpreter) :
             val month = "${digits[0]}${digits[1]}"
             val year = "20${digits[digits.size - 2]}${digits[digits.size - 1]}"
             if (isValidMonth(month)) {
-                Prediction(Expiry(month, year))
+                Expiry(month, year)
             } else {
-                Prediction(null)
+                null
             }
         } else {
-            Prediction(null)
+            null
         }
     }
 
+    /**
+     * Crop and convert each expiry box directly into a single batch. Unless the model does not support batching, the
+     * batch is padded with blank images to a multiple of [EXPIRY_BATCH_SIZE], and the output for the padding is
+     * ignored.
+     */
     override suspend fun transformData(data: Input): ByteBuffer {
+        val imageCount = if (batchUnsupported) {
+            data.expiryBoxes.size
+        } else {
+            (data.expiryBoxes.size + EXPIRY_BATCH_SIZE - 1) / EXPIRY_BATCH_SIZE * EXPIRY_BATCH_SIZE
+        }
+
+        // direct buffers are zero-filled, so the padding images are blank
+        val batch = ByteBuffer.allocateDirect(IMAGE_BYTES * imageCount).order(ByteOrder.nativeOrder())
+        data.expiryBoxes.forEach { transformBox(data.image, it, batch) }
+        batch.rewind()
+        return batch
+    }
+
+    private fun transformBox(image: Bitmap, expiryBox: RectF, batch: ByteBuffer) {
         val targetAspectRatio = ASPECT_RATIO
-        val scaledRect = data.expiryBox.scaled(data.image.size())
+        val scaledRect = expiryBox.scaled(image.size())
         val scaledExpRectNewHeight = scaledRect.width() * targetAspectRatio
 
         val rect = Rect(
@@ -104,17 +156,66 @@ class ExpiryDetect private constructor(interpreter: Interpreter) :
             (scaledRect.centerY() + scaledExpRectNewHeight / 2).roundToInt()
         )
 
-        return data.image
+        image
             .crop(rect)
             .scale(TRAINED_IMAGE_SIZE)
-            .toRGBByteBuffer()
+            .writeRGBTo(batch)
     }
 
     override suspend fun executeInference(
-        tfInterpreter: Interpreter,
+        inferenceEngine: InferenceEngine,
         data: ByteBuffer,
-        mlOutput: Array<Array<Array<FloatArray>>>
-    ) = tfInterpreter.run(data, mlOutput)
+        mlOutput: MutableList<Array<Array<FloatArray>>>
+    ) {
+        val imageCount = data.capacity() / IMAGE_BYTES
+        val output = if (imageCount % EXPIRY_BATCH_SIZE != 0 || batchUnsupported) {
+            runBatches(inferenceEngine, data, imageCount, 1)
+        } else {
+            try {
+                runBatches(inferenceEngine, data, imageCount, EXPIRY_BATCH_SIZE)
+            } catch (e: IllegalArgumentException) {
+                // the model does not support batching, so stop trying and run each box individually from now on
+                batchUnsupported = true
+                runBatches(inferenceEngine, data, imageCount, 1)
+            }
+        }
+
+        mlOutput.addAll(output)
+    }
+
+    /**
+     * Run inference on the [imageCount] images in [data], [batchSize] images at a time.
+     */
+    private fun runBatches(
+        inferenceEngine: InferenceEngine,
+        data: ByteBuffer,
+        imageCount: Int,
+        batchSize: Int
+    ): List<Array<Array<FloatArray>>> = (0 until imageCount step batchSize).flatMap { index ->
+        val batch = data.duplicate().apply {
+            position(index * IMAGE_BYTES)
+            limit((index + batchSize) * IMAGE_BYTES)
+        }.slice().order(ByteOrder.nativeOrder())
+        runBatch(inferenceEngine, batch, batchSize).toList()
+    }
+
+    /**
+     * Resize the model input to [batchSize] if needed, and run inference on the whole batch.
+     */
+    private fun runBatch(
+        inferenceEngine: InferenceEngine,
+        data: ByteBuffer,
+        batchSize: Int
+    ): Array<Array<Array<FloatArray>>> {
+        val inputShape = inferenceEngine.getInputShape(0)
+        if (inputShape[0] != batchSize) {
+            inferenceEngine.resizeInput(0, inputShape.copyOf().also { it[0] = batchSize })
+        }
+
+        val output = Array(batchSize) { arrayOf(Array(NUM_PREDICTIONS) { FloatArray(NUM_CLASS) }) }
+        inferenceEngine.run(data, output)
+        return output
+    }
 
     /**
      * A factory for creating instances of this analyzer. This downloads the model from the web. If unable to download
@@ -135,7 +236,7 @@ class ExpiryDetect private constructor(interpreter: Interpreter) :
             .setUseNNAPI(USE_GPU && hasOpenGl31(context))
             .setNumThreads(threads)
 
-        override suspend fun newInstance(): ExpiryDetect? = createInterpreter()?.let { ExpiryDetect(it) }
+        override suspend fun newInstance(): ExpiryDetect? = createInferenceEngine()?.let { ExpiryDetect(it) }
     }
 
     /**
@@ -3,15 +3,21 @@ package com.getbouncer.scan.payment.ml
 import android.content.Context
 import android.graphics.Bitmap
 import android.graphics.Rect
+import android.graphics.RectF
 import android.util.Size
+import androidx.annotation.RestrictTo
+import androidx.annotation.VisibleForTesting
 import com.getbouncer.scan.framework.FetchedData
 import com.getbouncer.scan.framework.UpdatingResourceFetcher
+import com.getbouncer.scan.framework.ml.InferenceEngine
 import com.getbouncer.scan.framework.ml.TFLAnalyzerFactory
 import com.getbouncer.scan.framework.ml.TensorFlowLiteAnalyzer
+import com.getbouncer.scan.framework.ml.ssd.SizeAndCenter
 import com.getbouncer.scan.framework.ml.ssd.adjustLocations
 import com.getbouncer.scan.framework.ml.ssd.softMax
 import com.getbouncer.scan.framework.ml.ssd.toRectForm
 import com.getbouncer.scan.framework.time.ClockMark
+import com.getbouncer.scan.framework.util.DerivedDataCache
 import com.getbouncer.scan.framework.util.reshape
 import com.getbouncer.scan.framework.util.scaleAndCenterWithin
 import com.getbouncer.scan.payment.R
@@ -22,6 +28,7 @@ import com.getbouncer.scan.payment.ml.ssd.OcrFeatureMapSizes
 import com.getbouncer.scan.payment.ml.ssd.combinePriors
 import com.getbouncer.scan.payment.ml.ssd.determineLayoutAndFilter
 import com.getbouncer.scan.payment.ml.ssd.extractPredictions
+import com.getbouncer.scan.payment.ml.ssd.fromRegion
 import com.getbouncer.scan.payment.ml.ssd.rearrangeOCRArray
 import com.getbouncer.scan.payment.scale
 import com.getbouncer.scan.payment.size
@@ -90,13 +97,45 @@ private val FEATURE_MAP_SIZES =
  */
 private val PRIORS = combinePriors()
 
+/**
+ * The internal post-processing steps of [SSDOcr], using its feature map sizes and priors, for benchmarks that live in
+ * another module.
+ */
+@VisibleForTesting
+object SSDOcrTestAccess {
+    val priors: Array<SizeAndCenter>
+        get() = PRIORS
+
+    fun rearrangeLocations(locations: Array<FloatArray>): Array<FloatArray> =
+        rearrangeOCRArray(locations, FEATURE_MAP_SIZES, NUM_OF_PRIORS_PER_ACTIVATION, NUM_OF_COORDINATES)
+
+    fun rearrangeClasses(classes: Array<FloatArray>): Array<FloatArray> =
+        rearrangeOCRArray(classes, FEATURE_MAP_SIZES, NUM_OF_PRIORS_PER_ACTIVATION, NUM_OF_CLASSES)
+}
+
 /**
  * This model performs SSD OCR recognition on a card.
  */
-class SSDOcr private constructor(interpreter: Interpreter) :
-    TensorFlowLiteAnalyzer<SSDOcr.Input, Array<ByteBuffer>, SSDOcr.Prediction, Map<Int, Array<FloatArray>>>(interpreter) {
+class SSDOcr @RestrictTo(RestrictTo.Scope.LIBRARY_GROUP) constructor(inferenceEngine: InferenceEngine) :
+    TensorFlowLiteAnalyzer<SSDOcr.Input, Array<ByteBuffer>, SSDOcr.Prediction, Map<Int, Array<FloatArray>>>(inferenceEngine) {
 
-    data class Input(val fullImage: Bitmap, val previewSize: Size, val cardFinder: Rect, val capturedAt: ClockMark)
+    /**
+     * @param ocrRegion: If specified, the region of the card crop to run OCR on, as fractions of the card crop. See
+     *     [com.getbouncer.scan.payment.ml.ssd.OcrRegionTracker].
+     */
+    data class Input(
+        val fullImage: Bitmap,
+        val previewSize: Size,
+        val cardFinder: Rect,
+        val capturedAt: ClockMark,
+        val ocrRegion: RectF? = null
+    ) {
+
+        /**
+         * Images derived from this frame, shared by all analyzers that process it.
+         */
+        val derivedImages = DerivedDataCache()
+    }
 
     data class Prediction(val pan: String, val detectedBoxes: List<DetectionBox>)
 
@@ -109,8 +148,28 @@ class SSDOcr private constructor(interpreter: Interpreter) :
          * 2. the fullImage circumscribes the previewImage. I.E. they share at least one field of view, and the previewImage's
          *    fields of view are smaller than or the same size as the fullImage's
          * 3. the fullImage and the previewImage have the same orientation
+         *
+         * The crop is cached in the [Input.derivedImages] of the frame.
+         */
+        fun cropImage(input: Input): Bitmap = input.derivedImages.getOrPut("ssd_ocr_crop") { calculateCrop(input) }
+
+        /**
+         * Crop the [Input.ocrRegion] from the card crop, or return the full card crop if no region is specified.
          */
-        fun cropImage(input: Input): Bitmap {
+        private fun cropOcrRegion(input: Input): Bitmap {
+            val cardImage = cropImage(input)
+            val region = input.ocrRegion ?: return cardImage
+            val regionRect = Rect(
+                (region.left * cardImage.width).roundToInt().coerceIn(0, cardImage.width - 1),
+                (region.top * cardImage.height).roundToInt().coerceIn(0, cardImage.height - 1),
+                (region.right * cardImage.width).roundToInt().coerceIn(1, cardImage.width),
+                (region.bottom * cardImage.height).roundToInt().coerceIn(1, cardImage.height)
+            )
+
+            return if (regionRect.width() > 0 && regionRect.height() > 0) cardImage.crop(regionRect) else cardImage
+        }
+
+        private fun calculateCrop(input: Input): Bitmap {
             require(
                 input.cardFinder.left >= 0 &&
                     input.cardFinder.right <= input.previewSize.width &&
@@ -151,7 +210,7 @@ class SSDOcr private constructor(interpreter: Interpreter) :
     )
 
     override suspend fun transformData(data: Input): Array<ByteBuffer> = arrayOf(
-        cropImage(data)
+        cropOcrRegion(data)
             .scale(Factory.TRAINED_IMAGE_SIZE)
             .toRGBByteBuffer(mean = IMAGE_MEAN, std = IMAGE_STD)
     )
@@ -197,14 +256,20 @@ class SSDOcr private constructor(interpreter: Interpreter) :
         )
 
         val predictedNumber = detectedBoxes.map { it.label }.joinToString("")
-        return Prediction(predictedNumber, detectedBoxes)
+
+        // report boxes relative to the full card crop regardless of the region that was analyzed
+        val region = data.ocrRegion
+        return Prediction(
+            predictedNumber,
+            if (region == null) detectedBoxes else detectedBoxes.map { it.copy(rect = it.rect.fromRegion(region)) }
+        )
     }
 
     override suspend fun executeInference(
-        tfInterpreter: Interpreter,
+        inferenceEngine: InferenceEngine,
         data: Array<ByteBuffer>,
         mlOutput: Map<Int, Array<FloatArray>>
-    ) = tfInterpreter.runForMultipleInputsOutputs(data, mlOutput)
+    ) = inferenceEngine.runForMultipleInputsOutputs(data, mlOutput)
 
     /**
      * A factory for creating instances of this analyzer.
@@ -226,7 +291,7 @@ class SSDOcr private constructor(interpreter: Interpreter) :
             .setUseNNAPI(USE_GPU && hasOpenGl31(context.applicationContext))
             .setNumThreads(threads)
 
-        override suspend fun newInstance(): SSDOcr? = createInterpreter()?.let { SSDOcr(it) }
+        override suspend fun newInstance(): SSDOcr? = createInferenceEngine()?.let { SSDOcr(it) }
     }
 
     /**
@@ -6,13 +6,16 @@ import android.graphics.Rect
 import android.graphics.RectF
 import android.util.Log
 import android.util.Size
+import androidx.annotation.RestrictTo
 import com.getbouncer.scan.framework.Config
 import com.getbouncer.scan.framework.FetchedData
 import com.getbouncer.scan.framework.UpdatingModelWebFetcher
+import com.getbouncer.scan.framework.ml.InferenceEngine
 import com.getbouncer.scan.framework.ml.TFLAnalyzerFactory
 import com.getbouncer.scan.framework.ml.TensorFlowLiteAnalyzer
 import com.getbouncer.scan.framework.ml.hardNonMaximumSuppression
 import com.getbouncer.scan.framework.ml.ssd.rectForm
+import com.getbouncer.scan.framework.util.DerivedDataCache
 import com.getbouncer.scan.payment.hasOpenGl31
 import com.getbouncer.scan.payment.ml.ssd.DetectionBox
 import com.getbouncer.scan.payment.ml.ssd.cropImageForObjectDetect
@@ -68,15 +71,16 @@ private val DIM_Z = (NUM_CLASS + 5) * 3
 private const val BOX_TOP_DELTA_THRESHOLD = 0.4F
 private const val HEIGHT_RATIO_THRESHOLD = 0.3F
 
-class TextDetect private constructor(interpreter: Interpreter) :
+class TextDetect @RestrictTo(RestrictTo.Scope.LIBRARY_GROUP) constructor(inferenceEngine: InferenceEngine) :
     TensorFlowLiteAnalyzer<TextDetect.Input, Array<ByteBuffer>,
         TextDetect.Prediction,
-        Map<Int, Array<Array<Array<FloatArray>>>>>(interpreter) {
+        Map<Int, Array<Array<Array<FloatArray>>>>>(inferenceEngine) {
 
     data class Input(
         val fullImage: Bitmap,
         val previewSize: Size,
-        val cardFinder: Rect
+        val cardFinder: Rect,
+        val derivedImages: DerivedDataCache = DerivedDataCache()
     )
 
     data class Prediction(
@@ -357,17 +361,18 @@ class TextDetect private constructor(interpreter: Interpreter) :
         cropImageForObjectDetect(
             data.fullImage,
             data.previewSize,
-            data.cardFinder
+            data.cardFinder,
+            data.derivedImages
         )
             .scale(TRAINED_IMAGE_SIZE)
             .toRGBByteBuffer()
     )
 
     override suspend fun executeInference(
-        tfInterpreter: Interpreter,
+        inferenceEngine: InferenceEngine,
         data: Array<ByteBuffer>,
         mlOutput: Map<Int, Array<Array<Array<FloatArray>>>>
-    ) = tfInterpreter.runForMultipleInputsOutputs(data, mlOutput)
+    ) = inferenceEngine.runForMultipleInputsOutputs(data, mlOutput)
 
     /**
      * A factory for creating instances of this analyzer. This downloads the model from the web. If unable to download
@@ -388,7 +393,7 @@ class TextDetect private constructor(interpreter: Interpreter) :
             .setUseNNAPI(USE_GPU && hasOpenGl31(context))
             .setNumThreads(threads)
 
-        override suspend fun newInstance(): TextDetect? = createInterpreter()?.let { TextDetect(it) }
+        override suspend fun newInstance(): TextDetect? = createInferenceEngine()?.let { TextDetect(it) }
     }
 
     /**
@@ -4,6 +4,7 @@ import android.graphics.Bitmap
 import android.graphics.Rect
 import android.graphics.RectF
 import android.util.Size
+import com.getbouncer.scan.framework.util.DerivedDataCache
 import com.getbouncer.scan.framework.util.maxAspectRatioInSize
 import com.getbouncer.scan.framework.util.scaleAndCenterWithin
 import com.getbouncer.scan.framework.util.scaled
@@ -87,6 +88,19 @@ fun cropImageForObjectDetect(
     )
 )
 
+/**
+ * Calculate what portion of the full image should be cropped for object detection based on the position of card finder
+ * within the preview image. The crop is computed at most once per [cache].
+ */
+fun cropImageForObjectDetect(
+    fullImage: Bitmap,
+    previewSize: Size,
+    cardFinder: Rect,
+    cache: DerivedDataCache
+): Bitmap = cache.getOrPut("object_detect_crop:$previewSize:$cardFinder") {
+    cropImageForObjectDetect(fullImage, previewSize, cardFinder)
+}
+
 fun calculateCardFinderCoordinatesFromObjectDetection(rect: RectF, previewImage: Size, cardFinder: Rect): RectF {
     val objectDetection =
         calculateObjectDetectionFromCardFinder(
@@ -0,0 +1,113 @@
+package com.getbouncer.scan.payment.ml.ssd
+
+import android.graphics.RectF
+import com.getbouncer.scan.payment.card.isValidPan
+import kotlin.math.max
+
+/**
+ * The margin around the detected digits to include in the region, as a fraction of the height of the digits. A PAN
+ * spans most of the width of a card, so a large margin would grow the region to the full card crop.
+ */
+private const val DEFAULT_MARGIN = 0.5F
+
+/**
+ * The smallest region to crop, as a fraction of the full card crop. This keeps the digits close to the scale the
+ * model was trained on.
+ */
+private const val DEFAULT_MINIMUM_REGION_SIZE = 0.5F
+
+/**
+ * The number of frames in a row that can fail to read a valid PAN before falling back to the full card crop.
+ */
+private const val DEFAULT_MAXIMUM_MISSES = 2
+
+/**
+ * Calculate the region of a card crop to run OCR on given the [digits] detected in a previous frame. All coordinates
+ * are fractions of the card crop.
+ *
+ * The region surrounds the digits with a [margin] proportional to their height and is never smaller than
+ * [minimumSize]. The card crop has nearly the same aspect ratio as the OCR model input, so the region has equal width
+ * and height fractions to be scaled to the model input without distorting the digits. For a typical PAN, its size is set
+ * by the width of the digit row.
+ */
+fun calculateOcrRegion(digits: List<RectF>, margin: Float, minimumSize: Float): RectF? {
+    if (digits.isEmpty()) {
+        return null
+    }
+
+    val left = digits.minOf { it.left }
+    val top = digits.minOf { it.top }
+    val right = digits.maxOf { it.right }
+    val bottom = digits.maxOf { it.bottom }
+    val digitHeight = digits.map { it.height() }.average().toFloat()
+
+    val size = max(
+        minimumSize,
+        max(right - left, bottom - top) + 2 * margin * digitHeight
+    ).coerceAtMost(1F)
+
+    // center the region on the digits, then shift it to fit within the card crop
+    val regionLeft = ((left + right - size) / 2).coerceIn(0F, 1F - size)
+    val regionTop = ((top + bottom - size) / 2).coerceIn(0F, 1F - size)
+    return RectF(regionLeft, regionTop, regionLeft + size, regionTop + size)
+}
+
+/**
+ * Map a rectangle from the coordinate space of a [region] back to the coordinate space of the full card crop.
+ */
+fun RectF.fromRegion(region: RectF) = RectF(
+    region.left + left * region.width(),
+    region.top + top * region.height(),
+    region.left + right * region.width(),
+    region.top + bottom * region.height()
+)
+
+/**
+ * Track the region of the card where the PAN was last read so that later frames can run OCR on just that region. A
+ * smaller crop is cheaper to scale and convert, and gives the digits more resolution when the card does not fill the
+ * card finder.
+ *
+ * If [maximumMisses] frames in a row fail to read a valid PAN, the tracker falls back to the full card crop.
+ *
+ * This class is threadsafe.
+ *
+ * @param margin: The margin around the digits, as a fraction of their height
+ * @param minimumRegionSize: The smallest region to crop, as a fraction of the full card crop
+ * @param maximumMisses: The number of frames in a row that can fail to read a PAN before falling back
+ */
+class OcrRegionTracker @JvmOverloads constructor(
+    private val margin: Float = DEFAULT_MARGIN,
+    private val minimumRegionSize: Float = DEFAULT_MINIMUM_REGION_SIZE,
+    private val maximumMisses: Int = DEFAULT_MAXIMUM_MISSES
+) {
+    private var region: RectF? = null
+    private var misses = 0
+
+    /**
+     * The region to run OCR on, or null to use the full card crop.
+     */
+    @Synchronized
+    fun getRegion(): RectF? = region?.let { RectF(it) }
+
+    /**
+     * Update the region with the [pan] read from a frame and its [digits], in card crop coordinates.
+     */
+    @Synchronized
+    fun update(pan: String?, digits: List<DetectionBox>) {
+        if (isValidPan(pan)) {
+            region = calculateOcrRegion(digits.map { it.rect }, margin, minimumRegionSize)
+            misses = 0
+        } else if (++misses >= maximumMisses) {
+            region = null
+        }
+    }
+
+    /**
+     * Forget the tracked region.
+     */
+    @Synchronized
+    fun reset() {
+        region = null
+        misses = 0
+    }
+}
@@ -0,0 +1,114 @@
+package com.getbouncer.scan.payment.ml.ssd
+
+import com.getbouncer.scan.payment.card.isValidPan
+
+/**
+ * The shortest PAN that can be fused.
+ */
+private const val MINIMUM_PAN_LENGTH = 12
+
+/**
+ * The longest PAN that can be fused.
+ */
+private const val MAXIMUM_PAN_LENGTH = 19
+
+/**
+ * The number of distinct digits that can be read at each position.
+ */
+private const val DIGIT_COUNT = 10
+
+/**
+ * The total confidence a digit must accumulate at a position before it is trusted. With typical detection confidences,
+ * this is reached after three agreeing frames.
+ */
+private const val DEFAULT_MINIMUM_DIGIT_CONFIDENCE = 2.5F
+
+/**
+ * The fraction of all confidence accumulated at a position that must belong to the most likely digit.
+ */
+private const val DEFAULT_MINIMUM_DIGIT_AGREEMENT = 0.7F
+
+/**
+ * Fuse the PAN digits read from several frames into a single PAN. Rather than requiring several frames to read the
+ * exact same PAN, the confidence of each detected digit is accumulated by its position in the PAN. A frame with a
+ * single misread digit, such as from glare, still adds to the agreement of every other digit.
+ *
+ * The digits from each frame are aligned by the order they are given in, which must be the order of the PAN, such as
+ * the order produced by [determineLayoutAndFilter] for both single line and quick read layouts. Frames are only
+ * aligned with other frames that read the same number of digits. A PAN is available once every position has a digit
+ * with at least [minimumDigitConfidence] total confidence that holds at least [minimumDigitAgreement] of the confidence
+ * at that position, and the resulting PAN passes the length, issuer, and Luhn checks.
+ *
+ * This class is not threadsafe.
+ *
+ * @param minimumDigitConfidence: The total confidence a digit must accumulate at a position
+ * @param minimumDigitAgreement: The fraction of the confidence at a position that must belong to the most likely digit
+ */
+class PanDigitFusion @JvmOverloads constructor(
+    private val minimumDigitConfidence: Float = DEFAULT_MINIMUM_DIGIT_CONFIDENCE,
+    private val minimumDigitAgreement: Float = DEFAULT_MINIMUM_DIGIT_AGREEMENT
+) {
+
+    /**
+     * The accumulated confidence of each digit at each position, by PAN length.
+     */
+    private val confidences = mutableMapOf<Int, Array<FloatArray>>()
+
+    private var fusedPan: String? = null
+
+    /**
+     * Add the [digits] read from a frame in PAN order, and return the fused PAN if one is available. Frames with a
+     * number of digits that cannot be a PAN are ignored.
+     */
+    fun add(digits: List<DetectionBox>): String? {
+        if (digits.size !in MINIMUM_PAN_LENGTH..MAXIMUM_PAN_LENGTH || digits.any { it.label !in 0 until DIGIT_COUNT }) {
+            return fusedPan
+        }
+
+        val positions = confidences.getOrPut(digits.size) { Array(digits.size) { FloatArray(DIGIT_COUNT) } }
+        digits.forEachIndexed { position, digit ->
+            positions[position][digit.label] += digit.confidence
+        }
+
+        if (fusedPan == null) {
+            fusedPan = fuse(positions)
+        }
+
+        return fusedPan
+    }
+
+    /**
+     * Get the fused PAN, or null if not enough frames agree on one.
+     */
+    fun getFusedPan(): String? = fusedPan
+
+    /**
+     * Forget all digits read so far.
+     */
+    fun reset() {
+        confidences.clear()
+        fusedPan = null
+    }
+
+    private fun fuse(positions: Array<FloatArray>): String? {
+        val pan = StringBuilder(positions.size)
+        for (digitConfidences in positions) {
+            var digit = 0
+            var total = 0F
+            for (candidate in 0 until DIGIT_COUNT) {
+                total += digitConfidences[candidate]
+                if (digitConfidences[candidate] > digitConfidences[digit]) {
+                    digit = candidate
+                }
+            }
+
+            val confidence = digitConfidences[digit]
+            if (confidence < minimumDigitConfidence || confidence < minimumDigitAgreement * total) {
+                return null
+            }
+            pan.append(digit)
+        }
+
+        return pan.toString().takeIf { isValidPan(it) }
+    }
+}
@@ -0,0 +1,74 @@
+package com.getbouncer.scan.payment.card
+
+import androidx.test.filters.SmallTest
+import org.junit.Test
+import kotlin.random.Random
+import kotlin.test.assertEquals
+import kotlin.test.assertNull
+
+class IinRangeIndexTest {
+
+    @Test
+    @SmallTest
+    fun get_findsContainingRange() {
+        val index = IinRangeIndex(listOf(100..199 to "a", 300..300 to "b", 400..499 to "c"))
+
+        assertEquals("a", index[100])
+        assertEquals("a", index[199])
+        assertEquals("b", index[300])
+        assertEquals("c", index[450])
+        assertNull(index[99])
+        assertNull(index[200])
+        assertNull(index[301])
+        assertNull(index[500])
+    }
+
+    @Test
+    @SmallTest
+    fun get_prefersEarlierRanges() {
+        val index = IinRangeIndex(listOf(150..159 to "specific", 100..199 to "general", 190..299 to "late"))
+
+        assertEquals("general", index[149])
+        assertEquals("specific", index[150])
+        assertEquals("specific", index[159])
+        assertEquals("general", index[160])
+        assertEquals("general", index[199])
+        assertEquals("late", index[200])
+        assertEquals(4, index.intervalCount)
+    }
+
+    @Test
+    @SmallTest
+    fun get_mergesAdjacentIntervals() {
+        val index = IinRangeIndex(listOf(100..199 to "a", 120..129 to "b", 200..299 to "c"))
+
+        assertEquals(2, index.intervalCount)
+        assertEquals("a", index[125])
+        assertEquals("c", index[200])
+    }
+
+    @Test
+    @SmallTest
+    fun get_matchesLinearSearch() {
+        val random = Random(42)
+        val ranges = List(200) {
+            val start = random.nextInt(0, 999_000)
+            start..(start + random.nextInt(0, 5_000)) to it
+        }
+        val index = IinRangeIndex(ranges)
+
+        repeat(10_000) {
+            val iin = random.nextInt(0, 1_000_000)
+            assertEquals(ranges.firstOrNull { iin in it.first }?.second, index[iin], "Mismatch for $iin")
+        }
+    }
+
+    @Test
+    @SmallTest
+    fun get_emptyIndex() {
+        val index = IinRangeIndex(listOf(10..0 to "empty"))
+
+        assertEquals(0, index.intervalCount)
+        assertNull(index[5])
+    }
+}
@@ -0,0 +1,35 @@
+package com.getbouncer.scan.payment.gate
+
+import androidx.test.filters.SmallTest
+import org.junit.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertFalse
+import kotlin.test.assertTrue
+
+class CardPresenceGateTest {
+
+    private val blank = LuminanceImage(10, 10, IntArray(100) { 200 })
+
+    private val stripes = LuminanceImage(10, 10, IntArray(100) { if (it % 10 < 5) 0 else 255 })
+
+    @Test
+    @SmallTest
+    fun edgeDensity_countsEdgePixels() {
+        assertEquals(0.0, blank.edgeDensity(24))
+
+        // the interior columns on either side of the stripe boundary are edges
+        assertEquals(2.0 / 8, stripes.edgeDensity(24))
+    }
+
+    @Test
+    @SmallTest
+    fun isCardLikely_rejectsBlankFrames() {
+        val gate = CardPresenceGate<Unit>(maximumConsecutiveSkips = 2)
+
+        assertTrue(gate.isCardLikely(stripes))
+        assertFalse(gate.isCardLikely(blank))
+        assertFalse(gate.isCardLikely(blank))
+        assertTrue(gate.isCardLikely(blank))
+        assertFalse(gate.isCardLikely(blank))
+    }
+}
@@ -0,0 +1,82 @@
+package com.getbouncer.scan.payment.gate
+
+import androidx.test.filters.SmallTest
+import org.junit.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertTrue
+
+class FrameQualityGateTest {
+
+    private fun checkerboard(width: Int, height: Int, offset: Int = 0) = LuminanceImage(
+        width,
+        height,
+        IntArray(width * height) { if ((it % width + it / width + offset) % 2 == 0) 255 else 0 }
+    )
+
+    private fun flat(width: Int, height: Int, value: Int = 128) =
+        LuminanceImage(width, height, IntArray(width * height) { value })
+
+    @Test
+    @SmallTest
+    fun laplacianVariance_flatImageHasNoEdges() {
+        assertEquals(0.0, flat(10, 10).laplacianVariance())
+    }
+
+    @Test
+    @SmallTest
+    fun laplacianVariance_sharpImageExceedsBlurredImage() {
+        val sharp = checkerboard(10, 10)
+        val blurred = LuminanceImage(10, 10, IntArray(100) { 100 + it % 10 })
+        assertTrue(sharp.laplacianVariance() > blurred.laplacianVariance())
+    }
+
+    @Test
+    @SmallTest
+    fun meanAbsoluteDifference_measuresChange() {
+        assertEquals(0.0, flat(4, 4).meanAbsoluteDifference(flat(4, 4)))
+        assertEquals(28.0, flat(4, 4, 100).meanAbsoluteDifference(flat(4, 4, 128)))
+        assertEquals(255.0, checkerboard(4, 4).meanAbsoluteDifference(checkerboard(4, 4, offset = 1)))
+    }
+
+    @Test
+    @SmallTest
+    fun luminance_weightsChannels() {
+        assertEquals(255, luminance(0xFFFFFFFF.toInt()))
+        assertEquals(0, luminance(0xFF000000.toInt()))
+        assertEquals(149, luminance(0xFF00FF00.toInt()))
+    }
+
+    @Test
+    @SmallTest
+    fun differenceHash_similarImagesHaveSimilarHashes() {
+        val gradient = LuminanceImage(36, 16, IntArray(36 * 16) { (it % 36) * 7 })
+        val brighterGradient = LuminanceImage(36, 16, IntArray(36 * 16) { (it % 36) * 7 + 3 })
+        val reversedGradient = LuminanceImage(36, 16, IntArray(36 * 16) { (35 - it % 36) * 7 })
+
+        assertEquals(-1L, gradient.differenceHash())
+        assertEquals(0L, reversedGradient.differenceHash())
+        assertEquals(gradient.differenceHash(), brighterGradient.differenceHash())
+    }
+
+    @Test
+    @SmallTest
+    fun assess_rejectsBlurryAndMovingFrames() {
+        val gate = FrameQualityGate<Unit>(minimumSharpness = 100.0, maximumMotion = 20.0)
+
+        assertEquals(FrameQuality.BLURRY, gate.assess(flat(10, 10)))
+        assertEquals(FrameQuality.MOVING, gate.assess(checkerboard(10, 10)))
+        assertEquals(FrameQuality.USABLE, gate.assess(checkerboard(10, 10)))
+        assertEquals(FrameQuality.MOVING, gate.assess(checkerboard(10, 10, offset = 1)))
+    }
+
+    @Test
+    @SmallTest
+    fun assess_analyzesFrameAfterConsecutiveSkips() {
+        val gate = FrameQualityGate<Unit>(minimumSharpness = 100.0, maximumConsecutiveSkips = 2)
+
+        assertEquals(FrameQuality.BLURRY, gate.assess(flat(10, 10)))
+        assertEquals(FrameQuality.BLURRY, gate.assess(flat(10, 10)))
+        assertEquals(FrameQuality.USABLE, gate.assess(flat(10, 10)))
+        assertEquals(FrameQuality.BLURRY, gate.assess(flat(10, 10)))
+    }
+}